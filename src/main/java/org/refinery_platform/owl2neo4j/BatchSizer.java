@@ -0,0 +1,69 @@
+package org.refinery_platform.owl2neo4j;
+
+/**
+ * Scales the configured batch limits, e.g. `--flush-size` and `--chunk-size`,
+ * down when Neo4J is under pressure and back up once it copes again.
+ *
+ * The scale is halved whenever Neo4J runs out of memory or time and grows by a
+ * quarter after every `GROW_AFTER` successful requests in a row, but never
+ * beyond the configured limits. Shared by all writers of an import.
+ */
+class BatchSizer {
+
+    private static final double MIN_SCALE = 1.0 / 64;
+    private static final int GROW_AFTER = 8;
+    private static final double GROWTH = 1.25;
+
+    private final boolean verbose;
+
+    private double scale = 1.0;
+    private int successes = 0;
+
+    public BatchSizer (boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public synchronized int limit (int max) {
+        return (int) Math.max(1, Math.round(max * this.scale));
+    }
+
+    public synchronized long limit (long max) {
+        return Math.max(1, Math.round(max * this.scale));
+    }
+
+    /**
+     * Shrinks unless the failed batch is larger than the current limit, i.e.
+     * it has been put together before the last shrink, which already took
+     * care of it.
+     */
+    public synchronized void shrink (long failedSize, long max) {
+        if (failedSize > this.limit(max)) {
+            return;
+        }
+        this.shrink();
+    }
+
+    public synchronized void shrink () {
+        this.successes = 0;
+        if (this.scale > MIN_SCALE) {
+            this.scale = Math.max(MIN_SCALE, this.scale / 2);
+            if (this.verbose) {
+                System.out.println("Shrinking batches to " + Math.round(this.scale * 100) + "% of their size");
+            }
+        }
+    }
+
+    public synchronized void succeeded () {
+        if (this.scale >= 1.0) {
+            return;
+        }
+        this.successes++;
+        if (this.successes >= GROW_AFTER) {
+            this.successes = 0;
+            this.scale = Math.min(1.0, this.scale * GROWTH);
+            if (this.verbose) {
+                System.out.println("Growing batches to " + Math.round(this.scale * 100) + "% of their size");
+            }
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package org.refinery_platform.owl2neo4j;
+
+/** Neo4J Java driver */
+import org.neo4j.driver.v1.AuthToken;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.exceptions.Neo4jException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Writes to Neo4J via the binary Bolt protocol instead of the HTTP endpoint,
+ * which saves encoding every statement as JSON and the HTTP framing of every
+ * request.
+ *
+ * Class nodes and relationships are collected in chunks of rows and written
+ * as one `UNWIND` statement per chunk, just like `UnwindHttpSink` does. Other
+ * nodes, labels and properties are written right away.
+ *
+ * Statements are run in an explicit transaction, which is opened when the
+ * first statement is written and stays open until `commit()` is called. The
+ * driver sends statements without waiting for their results. Results are only
+ * checked once `maxPending` statements are in flight and before a commit.
+ *
+ * With `commitEvery` > 0 the open transaction is committed at the first
+ * checkpoint after `commitEvery` writes, like `HttpSink` does. In that case
+ * the statements of the open transaction are kept, so that a transaction that
+ * failed transiently can be replayed in a new one. See `TransactionReplay`.
+ */
+class BoltSink implements GraphSink {
+
+    private static class PendingStatement {
+        final String cql;
+        final Map<String, Object> parameters;
+        final String errorTitle;
+        StatementResult result;
+
+        PendingStatement (String cql, Map<String, Object> parameters, String errorTitle) {
+            this.cql = cql;
+            this.parameters = parameters;
+            this.errorTitle = errorTitle;
+        }
+    }
+
+    // Shared by all imports. The driver pools its connections.
+    private static Driver driver;
+
+    private final String acronym;
+    private final String classLabel;
+    private final int maxPending;
+    private final boolean verbose;
+    private final Logger cqlLogger;
+    private final RetryPolicy retry;
+    private final BatchSizer sizer;
+    private final TransactionReplay<PendingStatement> replay;
+
+    private final RowBuffer rows;
+    private final List<PendingStatement> pending = new ArrayList<>();
+
+    private Session session;
+    private Transaction transaction;
+    private long numStatements = 0;
+
+    public BoltSink (String acronym, String classLabel, int chunkSize, int maxPending, int commitEvery, int maxRetries, boolean verbose, Logger cqlLogger) {
+        this.acronym = acronym;
+        this.classLabel = classLabel;
+        this.retry = new RetryPolicy(maxRetries, verbose);
+        this.sizer = new BatchSizer(verbose);
+        this.rows = new RowBuffer(chunkSize, this.sizer);
+        this.maxPending = Math.max(1, maxPending);
+        this.verbose = verbose;
+        this.cqlLogger = cqlLogger;
+        this.replay = new TransactionReplay<PendingStatement>(commitEvery, this.retry, this.sizer, verbose) {
+            @Override
+            protected void send (List<PendingStatement> statements) {
+                runAll(statements);
+            }
+
+            @Override
+            protected List<PendingStatement> split (PendingStatement statement, int maxRows) {
+                return splitRows(statement, maxRows);
+            }
+        };
+    }
+
+    /**
+     * Sets up the shared driver. Must be called before the first sink is
+     * created.
+     *
+     * Connections aren't encrypted, just like requests to an `http://` URL.
+     */
+    static synchronized void connect (String url, AuthToken authToken) {
+        if (driver == null) {
+            driver = GraphDatabase.driver(url, authToken, Config.build().withoutEncryption().toConfig());
+        }
+    }
+
+    static synchronized void disconnect () {
+        if (driver != null) {
+            driver.close();
+            driver = null;
+        }
+    }
+
+    static synchronized Driver getDriver () {
+        if (driver == null) {
+            throw new IllegalStateException("Bolt driver hasn't been connected");
+        }
+        return driver;
+    }
+
+    /**
+     * Reads a property of a node in its own transaction, which doesn't see
+     * what has been written to the open transaction.
+     *
+     * @return Number of matching nodes and the property, which is `null` if
+     *   there is no such node or property.
+     */
+    public Owl2Neo4J.Tuple<Integer, String> readProperty (String label, String uri, String name) throws IOException {
+        final String cql = "OPTIONAL MATCH (n:`" + label + "` {uri:{uri}}) RETURN count(n), n.`" + name + "`;";
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("uri", uri);
+        try {
+            return this.retry.call(new Callable<Owl2Neo4J.Tuple<Integer, String>>() {
+                @Override
+                public Owl2Neo4J.Tuple<Integer, String> call () {
+                    try (Session readSession = getDriver().session()) {
+                        StatementResult result = readSession.run(cql, parameters);
+                        if (!result.hasNext()) {
+                            return new Owl2Neo4J.Tuple<>(0, null);
+                        }
+                        Record record = result.next();
+                        Object value = record.get(1).asObject();
+                        return new Owl2Neo4J.Tuple<>(record.get(0).asInt(), value == null ? null : value.toString());
+                    }
+                }
+            });
+        } catch (Exception e) {
+            throw new IOException("Error reading " + name + " of " + uri + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void upsertNode (String label, String uri, Map<String, String> properties) throws IOException {
+        this.replay.wrote();
+        if (!label.equals(this.classLabel)) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("classUri", uri);
+            parameters.put("props", properties);
+            this.run(
+                "MERGE (n:`" + label + "` {uri:{classUri}}) SET n += {props}, n:`" + this.acronym + "`;",
+                parameters,
+                "Error creating a node"
+            );
+            return;
+        }
+        if (this.rows.addNode(uri, properties)) {
+            this.writeNodeRows();
+        }
+    }
+
+    @Override
+    public void referenceNode (String label, String uri, Map<String, String> properties) throws IOException {
+        this.upsertNode(label, uri, properties);
+    }
+
+    @Override
+    public void upsertEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        this.replay.wrote();
+        if (!srcLabel.equals(this.classLabel) || !destLabel.equals(this.classLabel)) {
+            this.writeNodeRows();
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("srcUri", srcUri);
+            parameters.put("destUri", destUri);
+            this.run(
+                "MATCH (src:`" + srcLabel + "` {uri:{srcUri}}), (dest:`" + destLabel + "` {uri:{destUri}}) MERGE (src)-[:`" + type + "`]->(dest);",
+                parameters,
+                "Error creating a relationship"
+            );
+            return;
+        }
+        if (this.rows.addEdge(type, srcUri, destUri)) {
+            this.writeNodeRows();
+            this.writeEdgeRows();
+        }
+    }
+
+    @Override
+    public void removeProperty (String label, String uri, String name) throws IOException {
+        // The node might still be pending
+        this.writeNodeRows();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("classUri", uri);
+        this.replay.wrote();
+        this.run("MATCH (n:`" + label + "` {uri:{classUri}}) REMOVE n.`" + name + "`;", parameters, "Error removing a node property");
+    }
+
+    @Override
+    public void deleteEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("srcUri", srcUri);
+        parameters.put("destUri", destUri);
+        this.replay.wrote();
+        this.run(
+            "MATCH (src:`" + srcLabel + "` {uri:{srcUri}})-[r:`" + type + "`]->(dest:`" + destLabel + "` {uri:{destUri}}) DELETE r;",
+            parameters,
+            "Error deleting a relationship"
+        );
+    }
+
+    @Override
+    public void releaseNode (String label, String uri) throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("classUri", uri);
+        this.replay.wrote();
+        this.run(
+            "MATCH (n:`" + label + "` {uri:{classUri}}) REMOVE n:`" + this.acronym + "` " +
+            "WITH n WHERE size(labels(n)) = 1 DETACH DELETE n;",
+            parameters,
+            "Error releasing a node"
+        );
+    }
+
+    /**
+     * Sends all pending rows and waits for the results of all statements.
+     */
+    @Override
+    public void flush () throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        this.checkPending();
+    }
+
+    @Override
+    public void checkpoint () throws IOException {
+        if (this.replay.isCommitDue()) {
+            this.commit();
+        }
+    }
+
+    public void setCommitListener (CommitListener commitListener) {
+        this.replay.setCommitListener(commitListener);
+    }
+
+    @Override
+    public void commit () throws IOException {
+        this.flush();
+
+        if (this.transaction == null) {
+            return;
+        }
+
+        while (true) {
+            try {
+                this.transaction.success();
+                this.transaction.close();
+                if (this.verbose) {
+                    System.out.println("Transaction committed.");
+                }
+                break;
+            } catch (Neo4jException e) {
+                this.recover("Error committing transaction", null, e);
+            }
+        }
+
+        this.transaction = null;
+        this.replay.committed();
+    }
+
+    /**
+     * Closes the session. Anything that hasn't been committed is rolled
+     * back.
+     */
+    @Override
+    public void close () throws IOException {
+        if (this.transaction != null) {
+            this.transaction.close();
+            this.transaction = null;
+        }
+        if (this.session != null) {
+            this.session.close();
+            this.session = null;
+        }
+        if (this.verbose) {
+            System.out.println("Sent " + this.numStatements + " statements via Bolt");
+        }
+    }
+
+    private void writeNodeRows () throws IOException {
+        if (this.rows.getNodes().isEmpty()) {
+            return;
+        }
+
+        // Labels can't be parameterized, hence the acronym is part of the query.
+        String cql = "UNWIND {rows} AS row " +
+            "MERGE (n:`" + this.classLabel + "` {uri:row.uri}) " +
+            "SET n += row.props, n:`" + this.acronym + "`;";
+
+        List<Map<String, Object>> nodeRows = new ArrayList<>(this.rows.getNodes().size());
+        for (Map.Entry<String, Map<String, String>> node: this.rows.getNodes().entrySet()) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("uri", node.getKey());
+            row.put("props", node.getValue());
+            nodeRows.add(row);
+        }
+        this.rows.clearNodes();
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("rows", nodeRows);
+        this.run(cql, parameters, "Error creating nodes");
+    }
+
+    private void writeEdgeRows () throws IOException {
+        // Relationship types can't be parameterized either, so there is one
+        // statement per type.
+        for (Map.Entry<String, List<Owl2Neo4J.Tuple<String, String>>> edges: this.rows.getEdges().entrySet()) {
+            String cql = "UNWIND {rows} AS row " +
+                "MATCH (src:`" + this.classLabel + "` {uri:row.src}), (dest:`" + this.classLabel + "` {uri:row.dest}) " +
+                "MERGE (src)-[:`" + edges.getKey() + "`]->(dest);";
+
+            List<Map<String, Object>> edgeRows = new ArrayList<>(edges.getValue().size());
+            for (Owl2Neo4J.Tuple<String, String> edge: edges.getValue()) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("src", edge.x);
+                row.put("dest", edge.y);
+                edgeRows.add(row);
+            }
+
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("rows", edgeRows);
+            this.run(cql, parameters, "Error creating relationships");
+        }
+        this.rows.clearEdges();
+    }
+
+    /**
+     * Runs a statement in the open transaction. Opens a transaction if there
+     * is none.
+     */
+    private void run (String cql, Map<String, Object> parameters, String errorTitle) throws IOException {
+        if (this.verbose) {
+            System.out.println("CQL: " + cql);
+            if (this.cqlLogger != null) {
+                this.cqlLogger.info(cql + " " + parameters);
+            }
+        }
+
+        PendingStatement statement = new PendingStatement(cql, parameters, errorTitle);
+        this.replay.sent(statement);
+        this.numStatements++;
+        MetricsReport.get().statements(1);
+        try {
+            if (this.transaction == null) {
+                this.begin();
+            }
+            statement.result = this.transaction.run(cql, parameters);
+            this.pending.add(statement);
+        } catch (Neo4jException e) {
+            // Replays the statement as well
+            this.recover(errorTitle, cql, e);
+        }
+
+        if (this.pending.size() >= this.maxPending) {
+            this.checkPending();
+        }
+    }
+
+    private void begin () {
+        if (this.session == null) {
+            this.session = getDriver().session();
+        }
+        this.transaction = this.session.beginTransaction();
+        this.replay.begun();
+    }
+
+    /**
+     * Waits for the results of all statements that have been sent. Exits
+     * when Neo4J reports an error that isn't retried.
+     */
+    private void checkPending () {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        for (PendingStatement statement: this.pending) {
+            try {
+                statement.result.consume();
+            } catch (Neo4jException e) {
+                // Everything pending has been replayed and checked
+                this.recover(statement.errorTitle, statement.cql, e);
+                return;
+            }
+        }
+        this.pending.clear();
+        this.sizer.succeeded();
+    }
+
+    /**
+     * Replaces a failed transaction with a new one and replays all statements
+     * of the failed one. Exits when the failure isn't retried.
+     */
+    private void recover (String errorTitle, String cql, Exception e) {
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            // The size of the failed statement isn't known
+            if (!this.replay.retry(e, attempt, 0, 0)) {
+                this.fail(errorTitle, cql, e);
+            }
+
+            try {
+                this.restart();
+                return;
+            } catch (Exception restartFailure) {
+                e = restartFailure;
+            }
+        }
+    }
+
+    private void restart () throws Exception {
+        this.pending.clear();
+        try {
+            if (this.transaction != null) {
+                this.transaction.close();
+            }
+            if (this.session != null) {
+                this.session.close();
+            }
+        } catch (Neo4jException e) {
+            // The connection is gone, nothing to roll back
+        }
+        this.transaction = null;
+        this.session = null;
+
+        this.begin();
+        this.replay.replay(this.maxPending, this.rows.getMaxRows());
+    }
+
+    /**
+     * Splits the `rows` parameter of an `UNWIND` statement into statements
+     * of at most `maxRows` rows.
+     */
+    private static List<PendingStatement> splitRows (PendingStatement statement, int maxRows) {
+        Object rows = statement.parameters.get("rows");
+        if (!(rows instanceof List) || ((List<?>) rows).size() <= maxRows) {
+            return Collections.singletonList(statement);
+        }
+        List<?> allRows = (List<?>) rows;
+        List<PendingStatement> chunks = new ArrayList<>();
+        for (int i = 0; i < allRows.size(); i += maxRows) {
+            Map<String, Object> parameters = new HashMap<>(statement.parameters);
+            parameters.put("rows", new ArrayList<>(allRows.subList(i, Math.min(i + maxRows, allRows.size()))));
+            chunks.add(new PendingStatement(statement.cql, parameters, statement.errorTitle));
+        }
+        return chunks;
+    }
+
+    /**
+     * Runs statements in the open transaction and waits for their results.
+     */
+    private void runAll (List<PendingStatement> statements) {
+        MetricsReport.get().statements(statements.size());
+        for (PendingStatement statement: statements) {
+            statement.result = this.transaction.run(statement.cql, statement.parameters);
+        }
+        for (PendingStatement statement: statements) {
+            statement.result.consume();
+        }
+    }
+
+    private void fail (String errorTitle, String cql, Exception e) {
+        Owl2Neo4J.print_error(Owl2Neo4J.ANSI_RESET_DIM + errorTitle);
+        if (cql != null) {
+            Owl2Neo4J.print_error("CQL: " + cql);
+        }
+        if (e instanceof Neo4jException) {
+            Owl2Neo4J.print_error(((Neo4jException) e).code() + ": \"" + e.getMessage() + "\"");
+        } else {
+            Owl2Neo4J.print_error(e.getMessage());
+        }
+        System.exit(1);
+    }
+}
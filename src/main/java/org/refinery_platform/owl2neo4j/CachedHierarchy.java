@@ -0,0 +1,239 @@
+package org.refinery_platform.owl2neo4j;
+
+/** OWL API */
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshot of a class hierarchy that can be written to and read from a cache
+ * file.
+ *
+ * Classes are numbered. Direct superclasses and equivalent classes are stored
+ * as class numbers in int arrays, where `superOffsets[i]` to
+ * `superOffsets[i + 1]` are the superclasses of class `i` and likewise for
+ * equivalent classes.
+ *
+ * File format (gzipped):
+ *
+ * - `int` magic number and `int` format version
+ * - `int` number of classes followed by their IRIs
+ * - `int` number of unsatisfiable classes followed by their numbers
+ * - For superclasses and equivalent classes: `int` number of entries, the
+ *   offsets and the class numbers
+ */
+class CachedHierarchy implements ClassHierarchy {
+
+    static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4f324e43;  // "O2NC"
+
+    private final OWLClass[] classes;
+    private final Map<IRI, Integer> ids;
+    private final BitSet unsatisfiable;
+    private final int[] superOffsets;
+    private final int[] supers;
+    private final int[] equivalentOffsets;
+    private final int[] equivalents;
+
+    private CachedHierarchy (OWLClass[] classes, BitSet unsatisfiable, int[] superOffsets, int[] supers, int[] equivalentOffsets, int[] equivalents) {
+        this.classes = classes;
+        this.ids = new HashMap<>(classes.length * 2);
+        for (int i = 0; i < classes.length; i++) {
+            this.ids.put(classes[i].getIRI(), i);
+        }
+        this.unsatisfiable = unsatisfiable;
+        this.superOffsets = superOffsets;
+        this.supers = supers;
+        this.equivalentOffsets = equivalentOffsets;
+        this.equivalents = equivalents;
+    }
+
+    /**
+     * Takes a snapshot of the given classes by querying `hierarchy`.
+     */
+    public static CachedHierarchy build (ClassHierarchy hierarchy, Collection<OWLClass> classes) {
+        Map<OWLClass, Integer> ids = new HashMap<>();
+        OWLClass[] numbered = new OWLClass[classes.size()];
+        for (OWLClass c: classes) {
+            numbered[ids.size()] = c;
+            ids.put(c, ids.size());
+        }
+
+        BitSet unsatisfiable = new BitSet();
+        int[] superOffsets = new int[classes.size() + 1];
+        ClassGraph.IntArray supers = new ClassGraph.IntArray();
+        int[] equivalentOffsets = new int[classes.size() + 1];
+        ClassGraph.IntArray equivalents = new ClassGraph.IntArray();
+
+        // Referenced classes outside of `classes` get numbers as well
+        Map<OWLClass, Integer> extra = new HashMap<>();
+        for (int i = 0; i < numbered.length; i++) {
+            OWLClass c = numbered[i];
+            if (!hierarchy.isSatisfiable(c)) {
+                unsatisfiable.set(i);
+            } else {
+                for (OWLClass superClass: hierarchy.getSuperClasses(c)) {
+                    supers.add(number(superClass, ids, extra, numbered.length));
+                }
+                for (OWLClass equivalentClass: hierarchy.getEquivalentClasses(c)) {
+                    equivalents.add(number(equivalentClass, ids, extra, numbered.length));
+                }
+            }
+            superOffsets[i + 1] = supers.size();
+            equivalentOffsets[i + 1] = equivalents.size();
+        }
+
+        OWLClass[] all = new OWLClass[numbered.length + extra.size()];
+        System.arraycopy(numbered, 0, all, 0, numbered.length);
+        for (Map.Entry<OWLClass, Integer> e: extra.entrySet()) {
+            all[e.getValue()] = e.getKey();
+        }
+
+        return new CachedHierarchy(all, unsatisfiable, superOffsets, toArray(supers), equivalentOffsets, toArray(equivalents));
+    }
+
+    /**
+     * Reads a snapshot written by `write()`.
+     */
+    public static CachedHierarchy read (File file, OWLDataFactory dataFactory) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a class hierarchy cache file: " + file);
+            }
+            OWLClass[] classes = new OWLClass[in.readInt()];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = dataFactory.getOWLClass(IRI.create(in.readUTF()));
+            }
+            BitSet unsatisfiable = new BitSet();
+            int numUnsatisfiable = in.readInt();
+            for (int i = 0; i < numUnsatisfiable; i++) {
+                unsatisfiable.set(in.readInt());
+            }
+            int[] superOffsets = readInts(in);
+            int[] supers = readInts(in);
+            int[] equivalentOffsets = readInts(in);
+            int[] equivalents = readInts(in);
+            return new CachedHierarchy(classes, unsatisfiable, superOffsets, supers, equivalentOffsets, equivalents);
+        }
+    }
+
+    /**
+     * Writes the snapshot. The file is replaced atomically so that an aborted
+     * run never leaves a broken cache file behind.
+     */
+    public void write (File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(this.classes.length);
+            for (OWLClass c: this.classes) {
+                out.writeUTF(c.getIRI().toString());
+            }
+            out.writeInt(this.unsatisfiable.cardinality());
+            for (int i = this.unsatisfiable.nextSetBit(0); i >= 0; i = this.unsatisfiable.nextSetBit(i + 1)) {
+                out.writeInt(i);
+            }
+            writeInts(out, this.superOffsets);
+            writeInts(out, this.supers);
+            writeInts(out, this.equivalentOffsets);
+            writeInts(out, this.equivalents);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public boolean isSatisfiable (OWLClass c) {
+        Integer id = this.ids.get(c.getIRI());
+        return id == null || !this.unsatisfiable.get(id);
+    }
+
+    @Override
+    public Set<OWLClass> getSuperClasses (OWLClass c) {
+        return this.get(c, this.superOffsets, this.supers);
+    }
+
+    @Override
+    public Set<OWLClass> getEquivalentClasses (OWLClass c) {
+        return this.get(c, this.equivalentOffsets, this.equivalents);
+    }
+
+    @Override
+    public boolean isThreadSafe () {
+        return true;
+    }
+
+    @Override
+    public void dispose () {}
+
+    public int size () {
+        return this.superOffsets.length - 1;
+    }
+
+    private Set<OWLClass> get (OWLClass c, int[] offsets, int[] values) {
+        Integer id = this.ids.get(c.getIRI());
+        if (id == null || id >= offsets.length - 1) {
+            return Collections.emptySet();
+        }
+        Set<OWLClass> results = new LinkedHashSet<>();
+        for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+            results.add(this.classes[values[i]]);
+        }
+        return results;
+    }
+
+    private static int number (OWLClass c, Map<OWLClass, Integer> ids, Map<OWLClass, Integer> extra, int numClasses) {
+        Integer id = ids.get(c);
+        if (id == null) {
+            id = extra.get(c);
+            if (id == null) {
+                id = numClasses + extra.size();
+                extra.put(c, id);
+            }
+        }
+        return id;
+    }
+
+    private static int[] toArray (ClassGraph.IntArray array) {
+        int[] result = new int[array.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = array.get(i);
+        }
+        return result;
+    }
+
+    private static int[] readInts (DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void writeInts (DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value: values) {
+            out.writeInt(value);
+        }
+    }
+}
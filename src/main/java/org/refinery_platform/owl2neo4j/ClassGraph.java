@@ -0,0 +1,317 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact in-memory graph of the extracted classes for very large ontologies.
+ *
+ * - URIs are interned to int IDs, which are the node IDs.
+ * - URIs and property values are stored as UTF-8 in shared byte pools.
+ * - Properties are stored as pairs of (key ID, value ID) in an int array.
+ * - Relationships are collected in int arrays and turned into a compressed
+ *   sparse row (CSR) layout before they are written: `edgeOffsets[n]` to
+ *   `edgeOffsets[n + 1]` are the indices of the targets of node `n`.
+ *
+ * Like the `TwoPhaseWriter` all nodes are written before any relationship and
+ * every node is written once. Nodes that only appear as the target of a
+ * relationship and haven't been referenced with properties, e.g. the root
+ * class, are expected to be written already.
+ */
+class ClassGraph {
+
+    /**
+     * Interns strings and stores them as UTF-8 in one byte array.
+     */
+    static class StringPool {
+        private byte[] data = new byte[4096];
+        private int dataSize = 0;
+        // Entry i is stored from offsets[i] to offsets[i + 1]
+        private int[] offsets = new int[1025];
+        private int size = 0;
+        // Open addressing table of entry IDs + 1. 0 marks an empty slot.
+        private int[] table = new int[2048];
+
+        /**
+         * @return ID of the string. IDs are assigned consecutively.
+         */
+        public int intern (String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            int hash = hash(bytes);
+            int mask = this.table.length - 1;
+            int slot = hash & mask;
+            while (this.table[slot] != 0) {
+                int id = this.table[slot] - 1;
+                if (this.equals(id, bytes)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            int id = this.append(bytes);
+            this.table[slot] = id + 1;
+            // Keep the load factor below 0.5
+            if (this.size * 2 > this.table.length) {
+                this.grow();
+            }
+            return id;
+        }
+
+        public String get (int id) {
+            return new String(this.data, this.offsets[id], this.offsets[id + 1] - this.offsets[id], StandardCharsets.UTF_8);
+        }
+
+        public int size () {
+            return this.size;
+        }
+
+        public long bytes () {
+            return this.data.length + 4L * this.offsets.length + 4L * this.table.length;
+        }
+
+        private int append (byte[] bytes) {
+            if (this.dataSize + bytes.length > this.data.length) {
+                this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.dataSize + bytes.length));
+            }
+            System.arraycopy(bytes, 0, this.data, this.dataSize, bytes.length);
+            this.dataSize += bytes.length;
+
+            if (this.size + 2 > this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+            }
+            this.offsets[this.size] = this.dataSize - bytes.length;
+            this.offsets[this.size + 1] = this.dataSize;
+            return this.size++;
+        }
+
+        private boolean equals (int id, byte[] bytes) {
+            int start = this.offsets[id];
+            if (this.offsets[id + 1] - start != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (this.data[start + i] != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int hash (int id) {
+            int h = 1;
+            for (int i = this.offsets[id]; i < this.offsets[id + 1]; i++) {
+                h = 31 * h + this.data[i];
+            }
+            return mix(h);
+        }
+
+        private static int hash (byte[] bytes) {
+            int h = 1;
+            for (byte b: bytes) {
+                h = 31 * h + b;
+            }
+            return mix(h);
+        }
+
+        private static int mix (int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            return h;
+        }
+
+        private void grow () {
+            this.table = new int[this.table.length * 2];
+            int mask = this.table.length - 1;
+            for (int id = 0; id < this.size; id++) {
+                int slot = this.hash(id) & mask;
+                while (this.table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                this.table[slot] = id + 1;
+            }
+        }
+    }
+
+    /**
+     * Growable array of ints.
+     */
+    static class IntArray {
+        private int[] data = new int[1024];
+        private int size = 0;
+
+        public void add (int value) {
+            if (this.size == this.data.length) {
+                this.data = Arrays.copyOf(this.data, this.data.length * 2);
+            }
+            this.data[this.size++] = value;
+        }
+
+        public int get (int index) {
+            return this.data[index];
+        }
+
+        public int size () {
+            return this.size;
+        }
+
+        public long bytes () {
+            return 4L * this.data.length;
+        }
+    }
+
+    private final StringPool uris = new StringPool();
+    private final StringPool values = new StringPool();
+    // Property keys and relationship types. There are only a handful of them.
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> types = new ArrayList<>();
+
+    // Per node: index of its first property in `props` (-1 if there are none)
+    // and the number of properties.
+    private int[] propStart = new int[1024];
+    private byte[] propCount = new byte[1024];
+    private final BitSet isClass = new BitSet();
+    private final IntArray props = new IntArray();
+
+    private IntArray edgeSrc = new IntArray();
+    private IntArray edgeDest = new IntArray();
+    private IntArray edgeType = new IntArray();
+
+    /**
+     * Adds the class, its referenced nodes and its relationships.
+     */
+    public void add (ClassRecord record) {
+        int node = this.node(record.uri);
+        this.setProperties(node, record.properties);
+        this.isClass.set(node);
+
+        for (Owl2Neo4J.Tuple<String, String> reference: record.references) {
+            int referenced = this.node(reference.x);
+            if (this.propStart[referenced] < 0) {
+                Map<String, String> properties = new LinkedHashMap<>();
+                properties.put("name", reference.y);
+                this.setProperties(referenced, properties);
+            }
+        }
+
+        for (ClassRecord.Edge edge: record.edges) {
+            this.edgeSrc.add(this.node(edge.src));
+            this.edgeDest.add(this.node(edge.dest));
+            this.edgeType.add(this.indexOf(this.types, edge.type));
+        }
+    }
+
+    /**
+     * Writes all nodes and then all relationships to the sink.
+     */
+    public void writeTo (GraphSink sink, String classLabel) throws IOException {
+        int numNodes = this.uris.size();
+
+        for (int node = 0; node < numNodes; node++) {
+            if (this.propStart[node] < 0) {
+                continue;
+            }
+            Map<String, String> properties = new LinkedHashMap<>();
+            for (int i = 0; i < this.propCount[node]; i++) {
+                int prop = this.propStart[node] + 2 * i;
+                properties.put(this.keys.get(this.props.get(prop)), this.values.get(this.props.get(prop + 1)));
+            }
+            if (this.isClass.get(node)) {
+                sink.upsertNode(classLabel, this.uris.get(node), properties);
+            } else {
+                sink.referenceNode(classLabel, this.uris.get(node), properties);
+            }
+            sink.checkpoint();
+        }
+
+        // Sort the relationships by source node (counting sort)
+        int numEdges = this.edgeSrc.size();
+        int[] edgeOffsets = new int[numNodes + 1];
+        for (int i = 0; i < numEdges; i++) {
+            edgeOffsets[this.edgeSrc.get(i) + 1]++;
+        }
+        for (int node = 0; node < numNodes; node++) {
+            edgeOffsets[node + 1] += edgeOffsets[node];
+        }
+        int[] edgeTargets = new int[numEdges];
+        short[] edgeTypes = new short[numEdges];
+        int[] next = Arrays.copyOf(edgeOffsets, numNodes);
+        for (int i = 0; i < numEdges; i++) {
+            int pos = next[this.edgeSrc.get(i)]++;
+            edgeTargets[pos] = this.edgeDest.get(i);
+            edgeTypes[pos] = (short) this.edgeType.get(i);
+        }
+        // The unsorted relationships aren't needed anymore
+        this.edgeSrc = new IntArray();
+        this.edgeDest = new IntArray();
+        this.edgeType = new IntArray();
+
+        for (int node = 0; node < numNodes; node++) {
+            if (edgeOffsets[node] == edgeOffsets[node + 1]) {
+                continue;
+            }
+            String srcUri = this.uris.get(node);
+            for (int i = edgeOffsets[node]; i < edgeOffsets[node + 1]; i++) {
+                sink.upsertEdge(classLabel, srcUri, classLabel, this.uris.get(edgeTargets[i]), this.types.get(edgeTypes[i] & 0xffff));
+                sink.checkpoint();
+            }
+        }
+    }
+
+    public int getNumNodes () {
+        return this.uris.size();
+    }
+
+    public int getNumEdges () {
+        return this.edgeSrc.size();
+    }
+
+    /**
+     * @return Rough estimate of the heap used by the graph in bytes.
+     */
+    public long getSize () {
+        return this.uris.bytes() + this.values.bytes() + this.props.bytes() +
+            4L * this.propStart.length + this.propCount.length +
+            this.edgeSrc.bytes() + this.edgeDest.bytes() + this.edgeType.bytes();
+    }
+
+    private int node (String uri) {
+        int numNodes = this.uris.size();
+        int node = this.uris.intern(uri);
+        if (node == numNodes) {
+            if (node == this.propStart.length) {
+                int capacity = this.propStart.length * 2;
+                this.propStart = Arrays.copyOf(this.propStart, capacity);
+                this.propCount = Arrays.copyOf(this.propCount, capacity);
+            }
+            this.propStart[node] = -1;
+        }
+        return node;
+    }
+
+    private void setProperties (int node, Map<String, String> properties) {
+        // Properties are appended. A referenced node's name is left behind
+        // when it turns out to be a class, which is a few bytes at most.
+        this.propStart[node] = this.props.size();
+        this.propCount[node] = (byte) properties.size();
+        for (Map.Entry<String, String> property: properties.entrySet()) {
+            this.props.add(this.indexOf(this.keys, property.getKey()));
+            this.props.add(this.values.intern(property.getValue()));
+        }
+    }
+
+    private int indexOf (List<String> list, String value) {
+        int index = list.indexOf(value);
+        if (index < 0) {
+            list.add(value);
+            index = list.size() - 1;
+        }
+        return index;
+    }
+}
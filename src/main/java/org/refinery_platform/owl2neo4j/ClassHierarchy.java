@@ -0,0 +1,43 @@
+package org.refinery_platform.owl2neo4j;
+
+/** OWL API */
+import org.semanticweb.owlapi.model.OWLClass;
+
+import java.util.Set;
+
+/**
+ * The inferred class hierarchy, i.e. the answers of the reasoner the import
+ * relies on.
+ *
+ * Available hierarchies:
+ *
+ * - `ReasonerHierarchy`: Asks an `OWLReasoner`
+ * - `CachedHierarchy`: Answers from a snapshot which can be persisted, so
+ *   that an unchanged ontology doesn't have to be classified again
+ */
+interface ClassHierarchy {
+
+    boolean isSatisfiable (OWLClass c);
+
+    /**
+     * Direct superclasses without unsatisfiable classes. `owl:Thing` stands
+     * for itself and every class equivalent to it.
+     */
+    Set<OWLClass> getSuperClasses (OWLClass c);
+
+    /**
+     * Classes equivalent to `c` including `c` itself.
+     */
+    Set<OWLClass> getEquivalentClasses (OWLClass c);
+
+    /**
+     * Whether the hierarchy may be queried from several threads at once.
+     */
+    boolean isThreadSafe ();
+
+    /**
+     * Frees what the hierarchy holds on to, e.g. the reasoner. The hierarchy
+     * mustn't be queried afterwards.
+     */
+    void dispose ();
+}
@@ -0,0 +1,53 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything extracted for a single class: the class node itself, the nodes
+ * it refers to, e.g. its superclasses, and its outgoing relationships.
+ */
+class ClassRecord {
+
+    /**
+     * Tiny class for storing relationships
+     */
+    public static class Edge {
+        public final String src;
+        public final String dest;
+        public final String type;
+
+        public Edge (String src, String dest, String type) {
+            this.src = src;
+            this.dest = dest;
+            this.type = type;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + src + ")-[" + type + "]->(" + dest + ")";
+        }
+    }
+
+    public final String uri;
+    public final Map<String, String> properties;
+    // Referenced classes as (URI, ontology ID)
+    public final List<Owl2Neo4J.Tuple<String, String>> references = new ArrayList<>();
+    public final List<Edge> edges = new ArrayList<>();
+    // Position of the class in the list of all classes
+    public int index = -1;
+
+    public ClassRecord (String uri, Map<String, String> properties) {
+        this.uri = uri;
+        this.properties = properties;
+    }
+
+    public void addReference (String uri, String ontID) {
+        this.references.add(new Owl2Neo4J.Tuple<>(uri, ontID));
+    }
+
+    public void addEdge (String src, String dest, String type) {
+        this.edges.add(new Edge(src, dest, type));
+    }
+}
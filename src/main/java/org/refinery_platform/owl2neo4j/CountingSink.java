@@ -0,0 +1,76 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.util.Map;
+
+/**
+ * Doesn't write anything but counts what would have been written. Useful for
+ * measuring the speed of reasoning and extraction without a database.
+ */
+class CountingSink implements GraphSink {
+
+    private final boolean verbose;
+
+    private long numNodes = 0;
+    private long numReferences = 0;
+    private long numProperties = 0;
+    private long numEdges = 0;
+    private long numDeletions = 0;
+
+    public CountingSink (boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    @Override
+    public void upsertNode (String label, String uri, Map<String, String> properties) {
+        this.numNodes++;
+        this.numProperties += properties.size();
+    }
+
+    @Override
+    public void referenceNode (String label, String uri, Map<String, String> properties) {
+        this.numReferences++;
+        this.numProperties += properties.size();
+    }
+
+    @Override
+    public void upsertEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) {
+        this.numEdges++;
+    }
+
+    @Override
+    public void removeProperty (String label, String uri, String name) {
+        this.numDeletions++;
+    }
+
+    @Override
+    public void deleteEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) {
+        this.numDeletions++;
+    }
+
+    @Override
+    public void releaseNode (String label, String uri) {
+        this.numDeletions++;
+    }
+
+    @Override
+    public void flush () {}
+
+    @Override
+    public void checkpoint () {}
+
+    @Override
+    public void commit () {}
+
+    @Override
+    public void close () {
+        if (this.verbose) {
+            System.out.println(
+                "Dry run: " + this.numNodes + " nodes, " +
+                    this.numReferences + " node references, " +
+                    this.numProperties + " properties, " +
+                    this.numEdges + " relationships and " +
+                    this.numDeletions + " deletions"
+            );
+        }
+    }
+}
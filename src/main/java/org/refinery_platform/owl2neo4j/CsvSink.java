@@ -0,0 +1,235 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Streams classes and relationships to CSV files that can be loaded into an
+ * empty database with `neo4j-admin import`.
+ *
+ * Files written for an ontology with acronym `GO`:
+ *
+ * - `GO-ontology.csv`: The Ontology node
+ * - `GO-classes.csv`: Class nodes
+ * - `GO-subClassOf.csv`: `RDFS:subClassOf` relationships
+ * - `GO-equivalentClass.csv`: `OWL:equivalentClass` relationships
+ * - `GO-eqp.csv`: Relationships derived from existential quantification
+ *   properties
+ *
+ * Class rows are written as soon as a class is visited. Classes that are only
+ * referenced, e.g. superclasses, are kept back until they are visited or the
+ * exporter is closed, so that every class is written exactly once and with
+ * all its properties.
+ */
+class CsvSink implements GraphSink {
+
+    public static String SUBCLASS_OF = "RDFS:subClassOf";
+    public static String EQUIVALENT_CLASS = "OWL:equivalentClass";
+
+    // `neo4j-admin import` splits header fields at the last colon, hence
+    // property names containing a colon need an explicit type.
+    private static String ONTOLOGY_HEADER = "uri:ID,name,acronym,version,:LABEL";
+    private static String CLASS_HEADER = "uri:ID,name,rdfs:label:string,labelLang,:LABEL";
+    private static String RELATIONSHIP_HEADER = ":START_ID,:END_ID,:TYPE";
+
+    private final String classLabel;
+    private final String ontologyLabel;
+    private final String classLabels;
+    private final String ontologyLabels;
+    private final boolean verbose;
+    private final List<File> nodeFiles = new ArrayList<>();
+    private final List<File> relationshipFiles = new ArrayList<>();
+
+    private final Writer ontologyWriter;
+    private final Writer classWriter;
+    private final Writer subClassOfWriter;
+    private final Writer equivalentClassWriter;
+    private final Writer eqpWriter;
+
+    private final Set<String> written = new HashSet<>();
+    private final Map<String, String> referenced = new LinkedHashMap<>();
+
+    private long numNodes = 0;
+    private long numRelationships = 0;
+
+    public CsvSink (File directory, String acronym, String classLabel, String ontologyLabel, boolean verbose) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create directory " + directory);
+        }
+
+        this.classLabel = classLabel;
+        this.ontologyLabel = ontologyLabel;
+        this.verbose = verbose;
+        this.classLabels = classLabel + ";" + acronym;
+        this.ontologyLabels = ontologyLabel + ";" + acronym;
+
+        this.ontologyWriter = this.open(new File(directory, acronym + "-ontology.csv"), ONTOLOGY_HEADER, this.nodeFiles);
+        this.classWriter = this.open(new File(directory, acronym + "-classes.csv"), CLASS_HEADER, this.nodeFiles);
+        this.subClassOfWriter = this.open(new File(directory, acronym + "-subClassOf.csv"), RELATIONSHIP_HEADER, this.relationshipFiles);
+        this.equivalentClassWriter = this.open(new File(directory, acronym + "-equivalentClass.csv"), RELATIONSHIP_HEADER, this.relationshipFiles);
+        this.eqpWriter = this.open(new File(directory, acronym + "-eqp.csv"), RELATIONSHIP_HEADER, this.relationshipFiles);
+    }
+
+    private Writer open (File file, String header, List<File> files) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        writer.write(header);
+        writer.newLine();
+        files.add(file);
+        return writer;
+    }
+
+    @Override
+    public void upsertNode (String label, String uri, Map<String, String> properties) throws IOException {
+        if (label.equals(this.ontologyLabel)) {
+            this.writeOntology(uri, properties);
+        } else if (label.equals(this.classLabel)) {
+            this.writeClass(uri, properties);
+        } else {
+            throw new UnsupportedOperationException("Nodes labeled " + label + " can't be exported to CSV");
+        }
+    }
+
+    @Override
+    public void referenceNode (String label, String uri, Map<String, String> properties) throws IOException {
+        if (!label.equals(this.classLabel)) {
+            this.upsertNode(label, uri, properties);
+            return;
+        }
+        if (!this.written.contains(uri) && !this.referenced.containsKey(uri)) {
+            this.referenced.put(uri, properties.get("name"));
+        }
+    }
+
+    @Override
+    public void removeProperty (String label, String uri, String name) {
+        throw new UnsupportedOperationException("Properties can't be removed from nodes exported to CSV");
+    }
+
+    @Override
+    public void deleteEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) {
+        throw new UnsupportedOperationException("Relationships can't be deleted from a CSV export");
+    }
+
+    @Override
+    public void releaseNode (String label, String uri) {
+        throw new UnsupportedOperationException("Nodes can't be deleted from a CSV export");
+    }
+
+    @Override
+    public void upsertEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        Writer writer;
+        if (type.equals(SUBCLASS_OF)) {
+            writer = this.subClassOfWriter;
+        } else if (type.equals(EQUIVALENT_CLASS)) {
+            writer = this.equivalentClassWriter;
+        } else {
+            writer = this.eqpWriter;
+        }
+        this.writeRow(writer, srcUri, destUri, type);
+        this.numRelationships++;
+    }
+
+    @Override
+    public void flush () throws IOException {
+        this.ontologyWriter.flush();
+        this.classWriter.flush();
+        this.subClassOfWriter.flush();
+        this.equivalentClassWriter.flush();
+        this.eqpWriter.flush();
+    }
+
+    /**
+     * There are no transactions. Rows are only flushed to disk.
+     */
+    @Override
+    public void checkpoint () {}
+
+    @Override
+    public void commit () throws IOException {
+        this.flush();
+    }
+
+    private void writeOntology (String uri, Map<String, String> properties) throws IOException {
+        this.writeRow(
+            this.ontologyWriter,
+            uri,
+            properties.get("name"),
+            properties.get("acronym"),
+            properties.get("version"),
+            this.ontologyLabels
+        );
+        this.numNodes++;
+    }
+
+    /**
+     * Writes a visited class including all its properties.
+     */
+    private void writeClass (String uri, Map<String, String> properties) throws IOException {
+        if (!this.written.add(uri)) {
+            return;
+        }
+        this.referenced.remove(uri);
+        this.writeRow(
+            this.classWriter,
+            uri,
+            properties.get("name"),
+            properties.get("rdfs:label"),
+            properties.get("labelLang"),
+            this.classLabels
+        );
+        this.numNodes++;
+    }
+
+    private void writeRow (Writer writer, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (fields[i] != null) {
+                writer.write('"');
+                writer.write(fields[i].replace("\"", "\"\""));
+                writer.write('"');
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Writes the classes which have only been referenced and closes all files.
+     */
+    @Override
+    public void close () throws IOException {
+        for (Map.Entry<String, String> entry: this.referenced.entrySet()) {
+            this.written.add(entry.getKey());
+            this.writeRow(this.classWriter, entry.getKey(), entry.getValue(), null, null, this.classLabels);
+            this.numNodes++;
+        }
+        this.referenced.clear();
+
+        this.ontologyWriter.close();
+        this.classWriter.close();
+        this.subClassOfWriter.close();
+        this.equivalentClassWriter.close();
+        this.eqpWriter.close();
+
+        if (this.verbose) {
+            System.out.println(
+                "Exported " + this.numNodes + " nodes and " + this.numRelationships +
+                    " relationships. Import them into an empty database with:"
+            );
+            StringBuilder command = new StringBuilder("neo4j-admin import --multiline-fields=true --ignore-duplicate-nodes=true");
+            for (File file: this.nodeFiles) {
+                command.append(" --nodes=").append(file.getPath());
+            }
+            for (File file: this.relationshipFiles) {
+                command.append(" --relationships=").append(file.getPath());
+            }
+            System.out.println(command);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the graph as a script for `cypher-shell` instead of sending it to a
+ * server.
+ *
+ * Class nodes and relationships are collected in blocks of `rowsPerBlock` rows
+ * and written as one `UNWIND` statement per block. Pending class nodes are
+ * always written before pending relationships, so that both ends of a
+ * relationship exist once it is matched. After `blocksPerTransaction`
+ * statements the open transaction is committed and a new one is begun.
+ *
+ * Files ending with `.gz` are gzip compressed. Only the current block is kept
+ * in memory.
+ *
+ * The script is opened once per run with `open()` and shared by all imports
+ * of a batch. Every import writes its own transactions to it.
+ */
+class CypherScriptSink implements GraphSink {
+
+    private final File file;
+    private final Writer writer;
+    private final String classLabel;
+    private final String acronym;
+    private final int blocksPerTransaction;
+    private final boolean verbose;
+
+    private final RowBuffer rows;
+    private int numBlocks = 0;
+    private long numStatements = 0;
+
+    /**
+     * Creates the script, replacing an existing file.
+     */
+    public static Writer open (File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), 65536);
+        if (file.getName().endsWith(".gz")) {
+            out = new GZIPOutputStream(out, 65536);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+    }
+
+    /**
+     * @param writer Script opened with `open()`
+     * @param file File of the script, only for messages
+     */
+    public CypherScriptSink (Writer writer, File file, String classLabel, String acronym, int rowsPerBlock, int blocksPerTransaction, boolean verbose) throws IOException {
+        this.file = file;
+        this.writer = writer;
+        this.classLabel = classLabel;
+        this.acronym = acronym;
+        this.rows = new RowBuffer(rowsPerBlock);
+        this.blocksPerTransaction = Math.max(1, blocksPerTransaction);
+        this.verbose = verbose;
+
+        this.writer.write(":begin\n");
+    }
+
+    @Override
+    public void upsertNode (String label, String uri, Map<String, String> properties) throws IOException {
+        if (!label.equals(this.classLabel)) {
+            // Nodes other than classes are rare, e.g. the ontology node, and
+            // are written right away.
+            this.writeStatement(
+                "MERGE (n:`" + label + "` {uri:" + literal(uri) + "}) " +
+                "SET n += " + literal(properties) + ", n:`" + this.acronym + "`;\n"
+            );
+            return;
+        }
+        if (this.rows.addNode(uri, properties)) {
+            this.writeNodeRows();
+        }
+    }
+
+    @Override
+    public void referenceNode (String label, String uri, Map<String, String> properties) throws IOException {
+        this.upsertNode(label, uri, properties);
+    }
+
+    @Override
+    public void upsertEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        if (this.rows.addEdge(type, srcUri, destUri)) {
+            this.writeNodeRows();
+            this.writeEdgeRows();
+        }
+    }
+
+    @Override
+    public void removeProperty (String label, String uri, String name) throws IOException {
+        this.writeNodeRows();
+        this.writeStatement(
+            "MATCH (n:`" + label + "` {uri:" + literal(uri) + "}) REMOVE n.`" + name + "`;\n"
+        );
+    }
+
+    @Override
+    public void deleteEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        this.writeStatement(
+            "MATCH (src:`" + srcLabel + "` {uri:" + literal(srcUri) + "})" +
+            "-[r:`" + type + "`]->" +
+            "(dest:`" + destLabel + "` {uri:" + literal(destUri) + "}) DELETE r;\n"
+        );
+    }
+
+    @Override
+    public void releaseNode (String label, String uri) throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        this.writeStatement(
+            "MATCH (n:`" + label + "` {uri:" + literal(uri) + "}) REMOVE n:`" + this.acronym + "` " +
+            "WITH n WHERE size(labels(n)) = 1 DETACH DELETE n;\n"
+        );
+    }
+
+    @Override
+    public void flush () throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        this.writer.flush();
+    }
+
+    @Override
+    public void checkpoint () {}
+
+    /**
+     * Ends the current transaction of the script.
+     */
+    @Override
+    public void commit () throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        if (this.numBlocks > 0) {
+            this.writer.write(":commit\n:begin\n");
+            this.numBlocks = 0;
+        }
+    }
+
+    private void writeNodeRows () throws IOException {
+        if (this.rows.getNodes().isEmpty()) {
+            return;
+        }
+        StringBuilder cql = new StringBuilder("UNWIND [");
+        boolean first = true;
+        for (Map.Entry<String, Map<String, String>> node: this.rows.getNodes().entrySet()) {
+            if (!first) {
+                cql.append(", ");
+            }
+            first = false;
+            cql.append("{uri:").append(literal(node.getKey()))
+                .append(", props:").append(literal(node.getValue()))
+                .append("}");
+        }
+        cql.append("] AS row MERGE (n:`").append(this.classLabel).append("` {uri:row.uri}) ")
+            .append("SET n += row.props, n:`").append(this.acronym).append("`;\n");
+        this.rows.clearNodes();
+        this.writeStatement(cql.toString());
+    }
+
+    private void writeEdgeRows () throws IOException {
+        for (Map.Entry<String, List<Owl2Neo4J.Tuple<String, String>>> edges: this.rows.getEdges().entrySet()) {
+            StringBuilder cql = new StringBuilder("UNWIND [");
+            for (int i = 0; i < edges.getValue().size(); i++) {
+                if (i > 0) {
+                    cql.append(", ");
+                }
+                cql.append("{src:").append(literal(edges.getValue().get(i).x))
+                    .append(", dest:").append(literal(edges.getValue().get(i).y))
+                    .append("}");
+            }
+            cql.append("] AS row MATCH (src:`").append(this.classLabel).append("` {uri:row.src}), ")
+                .append("(dest:`").append(this.classLabel).append("` {uri:row.dest}) ")
+                .append("MERGE (src)-[:`").append(edges.getKey()).append("`]->(dest);\n");
+            this.writeStatement(cql.toString());
+        }
+        this.rows.clearEdges();
+    }
+
+    private void writeStatement (String cql) throws IOException {
+        this.writer.write(cql);
+        this.numStatements++;
+        this.numBlocks++;
+        if (this.numBlocks >= this.blocksPerTransaction) {
+            this.writer.write(":commit\n:begin\n");
+            this.numBlocks = 0;
+        }
+    }
+
+    /**
+     * Writes everything pending and commits the last transaction. The script
+     * itself stays open for the next import.
+     */
+    @Override
+    public void close () throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        this.writer.write(":commit\n");
+        this.writer.flush();
+
+        if (this.verbose) {
+            System.out.println("Exported " + this.numStatements + " statements to " + this.file);
+        }
+    }
+
+    private static String literal (Map<String, String> properties) {
+        StringBuilder map = new StringBuilder("{");
+        for (Map.Entry<String, String> property: properties.entrySet()) {
+            if (map.length() > 1) {
+                map.append(", ");
+            }
+            map.append('`').append(property.getKey()).append("`:").append(literal(property.getValue()));
+        }
+        return map.append('}').toString();
+    }
+
+    private static String literal (String value) {
+        StringBuilder string = new StringBuilder(value.length() + 2);
+        string.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': string.append("\\\\"); break;
+                case '\'': string.append("\\'"); break;
+                case '\n': string.append("\\n"); break;
+                case '\r': string.append("\\r"); break;
+                case '\t': string.append("\\t"); break;
+                default: string.append(c);
+            }
+        }
+        return string.append('\'').toString();
+    }
+}
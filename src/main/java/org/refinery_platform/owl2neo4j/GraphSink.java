@@ -0,0 +1,78 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Receives the nodes and relationships extracted from an ontology.
+ *
+ * Nodes are identified by their label and URI. Every node written by a sink
+ * additionally gets the acronym of the imported ontology as a label.
+ * Relationships are only written after both of their nodes have been passed to
+ * the sink, either via `upsertNode()` or `referenceNode()`.
+ *
+ * Available sinks:
+ *
+ * - `HttpSink`: One statement per call, sent in batches to Neo4J's
+ *   transactional endpoint
+ * - `UnwindHttpSink`: Collects rows and sends them as `UNWIND` statements
+ * - `BoltSink`: Collects rows like `UnwindHttpSink` but sends them via Bolt
+ * - `CsvSink`: Writes files for `neo4j-admin import`
+ * - `CypherScriptSink`: Writes a script for `cypher-shell`
+ * - `CountingSink`: Only counts, which is handy for measuring extraction
+ *   speed without a database
+ */
+interface GraphSink extends Closeable {
+
+    /**
+     * Notified by sinks that write to Neo4J whenever everything written so
+     * far has been committed.
+     */
+    interface CommitListener {
+        void committed () throws IOException;
+    }
+
+    /**
+     * Creates or updates a node with all its properties.
+     */
+    void upsertNode (String label, String uri, Map<String, String> properties) throws IOException;
+
+    /**
+     * Declares a node which is referenced by a relationship, e.g. a
+     * superclass. Sinks that merge nodes treat this like `upsertNode()`. Sinks
+     * that write each node only once may wait until the node is upserted.
+     */
+    void referenceNode (String label, String uri, Map<String, String> properties) throws IOException;
+
+    void upsertEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException;
+
+    void removeProperty (String label, String uri, String name) throws IOException;
+
+    void deleteEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException;
+
+    /**
+     * Removes the acronym label of the imported ontology from a node. Class
+     * nodes are shared by all ontologies, so the node is only deleted
+     * together with its relationships if no other label than `label` is left.
+     */
+    void releaseNode (String label, String uri) throws IOException;
+
+    /**
+     * Writes everything that is still buffered.
+     */
+    void flush () throws IOException;
+
+    /**
+     * Marks a consistent point, i.e. every relationship written so far has
+     * both of its nodes written as well. Sinks that commit in chunks commit
+     * here, so that a chunk never holds a relationship without its nodes.
+     */
+    void checkpoint () throws IOException;
+
+    /**
+     * Makes everything written so far durable, e.g. by committing the open
+     * transaction. Sinks may be written to after a commit.
+     */
+    void commit () throws IOException;
+}
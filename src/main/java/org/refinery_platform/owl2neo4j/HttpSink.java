@@ -0,0 +1,476 @@
+package org.refinery_platform.owl2neo4j;
+
+/** JSON **/
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Writes to Neo4J's transactional HTTP endpoint. Every call results in one
+ * Cypher statement. Statements are sent in batches by a `StatementBuffer`.
+ *
+ * A transaction is opened when the first statement is written and stays open
+ * until `commit()` is called. With more than one writer, statements are sent
+ * concurrently by a `StatementPipeline` instead and every request is committed
+ * on its own.
+ *
+ * With `commitEvery` > 0 the open transaction is committed at the first
+ * checkpoint after `commitEvery` writes and a new one is opened on the next
+ * write. This keeps the transaction state on the server small. With several
+ * writers, the sink waits for all queued requests instead.
+ *
+ * Transient failures are retried as described in `RetryPolicy`. Requests that
+ * are committed on their own are simply sent again. A failed request to the
+ * open transaction takes the transaction down with it, so the transaction is
+ * begun anew and everything sent since the last commit is replayed before the
+ * request is sent again, see `TransactionReplay`.
+ */
+class HttpSink implements GraphSink {
+
+    protected final String serverRootUrl;
+    protected final String acronym;
+    protected final boolean verbose;
+
+    private final int flushSize;
+    private final long flushBytes;
+    private final int writers;
+    private final int queueDepth;
+    private final Logger cqlLogger;
+    private final RetryPolicy retry;
+    // Shared with subclasses that batch rows
+    protected final BatchSizer sizer;
+    // Counts the writes of subclasses as well
+    protected final TransactionReplay<JsonObject> replay;
+
+    private String transaction;
+    private StatementBuffer statementBuffer;
+    private StatementPipeline pipeline;
+
+    public HttpSink (String serverRootUrl, String acronym, int flushSize, long flushBytes, int writers, int queueDepth, int commitEvery, int maxRetries, boolean verbose, Logger cqlLogger) {
+        this.serverRootUrl = serverRootUrl;
+        this.acronym = acronym;
+        this.flushSize = flushSize;
+        this.flushBytes = flushBytes;
+        this.writers = writers;
+        this.queueDepth = queueDepth;
+        this.verbose = verbose;
+        this.cqlLogger = cqlLogger;
+        this.retry = new RetryPolicy(maxRetries, verbose);
+        this.sizer = new BatchSizer(verbose);
+        this.replay = new TransactionReplay<JsonObject>(commitEvery, this.retry, this.sizer, verbose) {
+            @Override
+            protected void send (List<JsonObject> statements) throws Exception {
+                StatementBuffer.request(getTransactionUrl(), statements, HttpSink.this.verbose, HttpSink.this.cqlLogger);
+            }
+
+            @Override
+            protected List<JsonObject> split (JsonObject statement, int maxRows) {
+                return splitRows(statement, maxRows);
+            }
+        };
+    }
+
+    @Override
+    public void upsertNode (String label, String uri, Map<String, String> properties) throws IOException {
+        // Uniqueness for Class nodes is set up by `SchemaBootstrap` before
+        // Look: cypher/constraints.cql
+        // Example: cypher/createClass.cql
+        //
+        // Merging, labeling and setting the properties is done in one go so
+        // that Neo4J only has to look up the node once.
+        String cql = "MERGE (n:`" + label + "` {uri:{classUri}}) " +
+            "SET n += {props}, n:`" + this.acronym + "`;";
+        JsonObject parameters = Json.createObjectBuilder()
+            .add("classUri", uri)
+            .add("props", toJson(properties))
+            .build();
+        this.replay.wrote();
+        this.query(cql, parameters, "Error creating a node", false);
+    }
+
+    @Override
+    public void referenceNode (String label, String uri, Map<String, String> properties) throws IOException {
+        this.upsertNode(label, uri, properties);
+    }
+
+    @Override
+    public void upsertEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        // Example: cypher/createRelationship.cql
+        String cql = "MATCH (src:`" + srcLabel + "` {uri:{srcUri}}), (dest:`" + destLabel + "` {uri:{destUri}}) MERGE (src)-[:`" + type + "`]->(dest);";
+        JsonObject parameters = Json.createObjectBuilder()
+            .add("srcUri", srcUri)
+            .add("destUri", destUri)
+            .build();
+        this.replay.wrote();
+        this.query(cql, parameters, "Error creating a relationship", true);
+    }
+
+    @Override
+    public void removeProperty (String label, String uri, String name) throws IOException {
+        String cql = "MATCH (n:`" + label + "` {uri:{classUri}}) REMOVE n.`" + name + "`;";
+        JsonObject parameters = Json.createObjectBuilder()
+            .add("classUri", uri)
+            .build();
+        this.replay.wrote();
+        this.query(cql, parameters, "Error removing a node property", true);
+    }
+
+    @Override
+    public void deleteEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        String cql = "MATCH (src:`" + srcLabel + "` {uri:{srcUri}})-[r:`" + type + "`]->(dest:`" + destLabel + "` {uri:{destUri}}) DELETE r;";
+        JsonObject parameters = Json.createObjectBuilder()
+            .add("srcUri", srcUri)
+            .add("destUri", destUri)
+            .build();
+        this.replay.wrote();
+        this.query(cql, parameters, "Error deleting a relationship", true);
+    }
+
+    @Override
+    public void releaseNode (String label, String uri) throws IOException {
+        String cql = "MATCH (n:`" + label + "` {uri:{classUri}}) REMOVE n:`" + this.acronym + "` " +
+            "WITH n WHERE size(labels(n)) = 1 DETACH DELETE n;";
+        JsonObject parameters = Json.createObjectBuilder()
+            .add("classUri", uri)
+            .build();
+        this.replay.wrote();
+        this.query(cql, parameters, "Error releasing a node", true);
+    }
+
+    @Override
+    public void flush () throws IOException {
+        if (this.statementBuffer != null) {
+            this.statementBuffer.flush();
+        }
+        if (this.pipeline != null) {
+            this.pipeline.flush();
+        }
+    }
+
+    @Override
+    public void checkpoint () throws IOException {
+        if (this.replay.isCommitDue()) {
+            this.commit();
+        }
+    }
+
+    public void setCommitListener (CommitListener commitListener) {
+        this.replay.setCommitListener(commitListener);
+    }
+
+    @Override
+    public void commit () throws IOException {
+        // Send whatever is left in the buffer before committing
+        this.flush();
+
+        if (this.pipeline != null) {
+            // Every request is committed by itself, we only need to wait.
+            try {
+                this.pipeline.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for writers");
+            }
+            if (this.verbose) {
+                System.out.println(
+                    "Committed " + this.pipeline.getNumStatements() + " statements in " +
+                    this.pipeline.getNumRequests() + " requests"
+                );
+            }
+            this.replay.committed();
+            return;
+        }
+
+        if (this.transaction == null) {
+            return;
+        }
+
+        int attempt = 0;
+        boolean restart = false;
+        while (true) {
+            try {
+                if (restart) {
+                    this.restart();
+                    restart = false;
+                }
+                Neo4jClient.Response response = Neo4jClient.get().post(
+                    this.getTransactionUrl() + "/commit",
+                    "{\"statements\":[]}"
+                );
+                if (this.verbose) {
+                    System.out.println(
+                        "Transaction committed. [Neo4J status:" +
+                        Integer.toString(response.status) +
+                        "]"
+                    );
+                }
+                Owl2Neo4J.checkForError(response);
+                break;
+            } catch (Exception e) {
+                attempt++;
+                if (!this.replay.retry(e, attempt, 0, this.flushSize)) {
+                    Owl2Neo4J.print_error(Owl2Neo4J.ANSI_RESET_DIM + "Error committing transaction");
+                    Owl2Neo4J.print_error(e.getMessage());
+                    System.exit(1);
+                }
+                restart = true;
+            }
+        }
+
+        this.transaction = null;
+        this.statementBuffer = null;
+        this.replay.committed();
+    }
+
+    @Override
+    public void close () throws IOException {
+        if (this.pipeline != null) {
+            try {
+                this.pipeline.close();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while stopping writers");
+            }
+            this.pipeline = null;
+        }
+    }
+
+    /**
+     * Whether all statements are written within one transaction, which is the
+     * case unless there are several writers.
+     */
+    public boolean isTransactional () {
+        return this.writers <= 1;
+    }
+
+    /**
+     * Reads a property of a node from Neo4J. The request is committed on its
+     * own and doesn't see what has been written to the open transaction.
+     *
+     * @return Number of matching nodes and the property, which is `null` if
+     *   there is no such node or property.
+     */
+    public Owl2Neo4J.Tuple<Integer, String> readProperty (String label, String uri, String name) throws IOException {
+        final JsonObject statement = Json.createObjectBuilder()
+            .add("statement", "OPTIONAL MATCH (n:`" + label + "` {uri:{uri}}) RETURN count(n), n.`" + name + "`;")
+            .add("parameters", Json.createObjectBuilder().add("uri", uri))
+            .build();
+        try {
+            return this.retry.call(new Callable<Owl2Neo4J.Tuple<Integer, String>>() {
+                @Override
+                public Owl2Neo4J.Tuple<Integer, String> call () throws Exception {
+                    Neo4jClient.Response response = Neo4jClient.get().post(
+                        serverRootUrl + Owl2Neo4J.TRANSACTION_ENDPOINT + "/commit",
+                        "{\"statements\":[" + statement.toString() + "]}"
+                    );
+                    Owl2Neo4J.checkForError(response);
+                    if (response.rows.isEmpty()) {
+                        return new Owl2Neo4J.Tuple<>(0, null);
+                    }
+                    List<String> row = response.rows.get(0);
+                    return new Owl2Neo4J.Tuple<>(Integer.parseInt(row.get(0)), row.get(1));
+                }
+            });
+        } catch (Exception e) {
+            throw new IOException("Error reading " + name + " of " + uri + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * URL of the open transaction. Opens a transaction if there is none.
+     */
+    public String getTransactionUrl () {
+        if (this.transaction == null) {
+            this.begin();
+        }
+        return this.serverRootUrl + Owl2Neo4J.TRANSACTION_ENDPOINT + this.transaction;
+    }
+
+    /**
+     * @param dependent `true` if the statement relies on nodes written by
+     *   earlier statements, e.g. when it `MATCH`es them.
+     */
+    protected void query (String cql, JsonObject parameters, String errorTitle, boolean dependent) {
+        if (!this.isTransactional()) {
+            if (this.pipeline == null) {
+                this.pipeline = new StatementPipeline(
+                    this.serverRootUrl + Owl2Neo4J.TRANSACTION_ENDPOINT + "/commit",
+                    this.writers,
+                    this.queueDepth,
+                    this.flushSize,
+                    this.flushBytes,
+                    this.retry,
+                    this.sizer,
+                    this.verbose,
+                    this.cqlLogger
+                );
+            }
+            this.pipeline.add(cql, parameters, errorTitle, dependent);
+            return;
+        }
+        if (this.statementBuffer == null) {
+            this.statementBuffer = new StatementBuffer(
+                this.getTransactionUrl(),
+                this.flushSize,
+                this.flushBytes,
+                this.retry,
+                this.sizer,
+                this.verbose,
+                this.cqlLogger
+            ) {
+                @Override
+                protected void send (List<JsonObject> statements, List<String> errorTitles) {
+                    // The transaction changes when it's begun anew
+                    sendInTransaction(statements, errorTitles);
+                }
+            };
+        }
+        this.statementBuffer.add(cql, parameters, errorTitle);
+    }
+
+    /**
+     * Sends a batch to the open transaction. When Neo4J is under pressure,
+     * the batch is split in half after the transaction has been restored.
+     */
+    private void sendInTransaction (List<JsonObject> statements, List<String> errorTitles) {
+        int attempt = 0;
+        boolean restart = false;
+        boolean split = false;
+        while (true) {
+            try {
+                if (restart) {
+                    this.restart();
+                    restart = false;
+                }
+                if (split) {
+                    int half = statements.size() / 2;
+                    this.sendInTransaction(statements.subList(0, half), errorTitles.subList(0, half));
+                    this.sendInTransaction(statements.subList(half, statements.size()), errorTitles.subList(half, errorTitles.size()));
+                    return;
+                }
+                StatementBuffer.request(this.getTransactionUrl(), statements, this.verbose, this.cqlLogger);
+                this.sizer.succeeded();
+                this.replay.sent(statements);
+                return;
+            } catch (Exception e) {
+                attempt++;
+                if (!this.replay.retry(e, attempt, statements.size(), this.flushSize)) {
+                    StatementBuffer.fail(statements, errorTitles, e);
+                }
+                split = RetryPolicy.classify(e) == RetryPolicy.Kind.PRESSURE && statements.size() > 1;
+                restart = true;
+            }
+        }
+    }
+
+    /**
+     * Replaces a failed transaction with a new one and replays everything
+     * that has been sent to the failed one.
+     */
+    private void restart () throws Exception {
+        if (this.transaction != null) {
+            // Usually Neo4J has rolled back the transaction already, but not
+            // when the request didn't get through.
+            Neo4jClient.get().rollback(this.getTransactionUrl());
+            this.transaction = null;
+        }
+        this.open();
+        this.replay.replay(this.sizer.limit(Math.max(1, this.flushSize)), this.getMaxRows());
+    }
+
+    /**
+     * Number of rows per `UNWIND` statement. Statements of this sink have no
+     * rows.
+     */
+    protected int getMaxRows () {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Splits the `rows` parameter of an `UNWIND` statement into statements
+     * of at most `maxRows` rows.
+     */
+    private static List<JsonObject> splitRows (JsonObject statement, int maxRows) {
+        JsonObject parameters = statement.getJsonObject("parameters");
+        JsonArray rows = parameters == null ? null : parameters.getJsonArray("rows");
+        if (rows == null || rows.size() <= maxRows) {
+            return Collections.singletonList(statement);
+        }
+        List<JsonObject> chunks = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i += maxRows) {
+            JsonArrayBuilder chunk = Json.createArrayBuilder();
+            for (JsonValue row: rows.subList(i, Math.min(i + maxRows, rows.size()))) {
+                chunk.add(row);
+            }
+            JsonObjectBuilder chunkParameters = Json.createObjectBuilder();
+            for (Map.Entry<String, JsonValue> parameter: parameters.entrySet()) {
+                if (!"rows".equals(parameter.getKey())) {
+                    chunkParameters.add(parameter.getKey(), parameter.getValue());
+                }
+            }
+            chunks.add(Json.createObjectBuilder()
+                .add("statement", statement.getString("statement"))
+                .add("parameters", chunkParameters.add("rows", chunk))
+                .build()
+            );
+        }
+        return chunks;
+    }
+
+    private void begin () {
+        try {
+            this.retry.call(new Callable<Void>() {
+                @Override
+                public Void call () throws Exception {
+                    open();
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            Owl2Neo4J.print_error(Owl2Neo4J.ANSI_RESET_DIM + "Error initiating transaction");
+            Owl2Neo4J.print_error(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void open () throws Exception {
+        // Fire empty statement to initialize transaction
+        Neo4jClient.Response response = Neo4jClient.get().post(
+            this.serverRootUrl + Owl2Neo4J.TRANSACTION_ENDPOINT,
+            "{\"statements\":[]}"
+        );
+        this.replay.begun();
+        String location = "";
+        if (response.location != null) {
+            location = response.location;
+            this.transaction = location.substring(location.lastIndexOf("/"));
+        }
+        if (this.verbose) {
+            System.out.println(
+                "Transaction initialized. Commit at " +
+                    location +
+                    " [Neo4J status:" +
+                    Integer.toString(response.status) +
+                    "]"
+            );
+        }
+        Owl2Neo4J.checkForError(response);
+    }
+
+    static JsonObjectBuilder toJson (Map<String, String> properties) {
+        JsonObjectBuilder json = Json.createObjectBuilder();
+        for (Map.Entry<String, String> property: properties.entrySet()) {
+            json.add(property.getKey(), property.getValue());
+        }
+        return json;
+    }
+}
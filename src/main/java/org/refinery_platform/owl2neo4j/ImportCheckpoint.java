@@ -0,0 +1,173 @@
+package org.refinery_platform.owl2neo4j;
+
+/** Apache commons */
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Progress of an import, so that an import that died half way can be resumed
+ * with `--resume` instead of starting over.
+ *
+ * Classes are identified by their position in the list of all classes sorted
+ * by IRI. A class is marked as written once its record has been passed to the
+ * sink and as committed once the sink reports the next commit. The state file
+ * is rewritten after every commit and deleted when the import is complete.
+ *
+ * Classes can be written out of order when they are extracted by several
+ * threads, so the state holds every committed class instead of an offset.
+ * Resuming relies on all statements being `MERGE`s: whatever has been written
+ * after the last commit was rolled back and is simply written again.
+ *
+ * File format: `int` magic number, `int` format version, SHA-256 fingerprint
+ * of the sorted class IRIs, `int` number of classes and the committed classes
+ * as a bit set (`int` number of words followed by the `long` words).
+ */
+class ImportCheckpoint implements GraphSink.CommitListener {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4f324e4b;  // "O2NK"
+
+    private final File file;
+    private final String fingerprint;
+    private final int numClasses;
+    private final boolean verbose;
+
+    // Committed before this run. Only read after construction, so it's safe
+    // to share with extraction threads.
+    private final BitSet resumed;
+    private final BitSet committed;
+    private final BitSet written = new BitSet();
+
+    private ImportCheckpoint (File file, String fingerprint, int numClasses, BitSet resumed, boolean verbose) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.numClasses = numClasses;
+        this.resumed = resumed;
+        this.committed = (BitSet) resumed.clone();
+        this.verbose = verbose;
+    }
+
+    /**
+     * @param classIris IRIs of all classes in the order they are numbered
+     * @param resume Whether to continue from the state in `file`. Otherwise,
+     *   or if the state belongs to a different list of classes, all classes
+     *   are written.
+     */
+    public static ImportCheckpoint open (File file, List<String> classIris, boolean resume, boolean verbose) throws IOException {
+        String fingerprint = getFingerprint(classIris);
+        BitSet resumed = new BitSet();
+
+        if (resume && file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    throw new IOException("Not a checkpoint file: " + file);
+                }
+                if (!in.readUTF().equals(fingerprint) || in.readInt() != classIris.size()) {
+                    Owl2Neo4J.print_error("The checkpoint belongs to a different version of the ontology. Importing everything.");
+                } else {
+                    long[] words = new long[in.readInt()];
+                    for (int i = 0; i < words.length; i++) {
+                        words[i] = in.readLong();
+                    }
+                    resumed = BitSet.valueOf(words);
+                }
+            }
+            if (verbose) {
+                System.out.println(
+                    "Resuming from " + file + ": " + resumed.cardinality() + " of " +
+                    classIris.size() + " classes have been committed before"
+                );
+            }
+        } else if (resume && verbose) {
+            System.out.println("No checkpoint at " + file + ". Importing everything.");
+        }
+
+        return new ImportCheckpoint(file, fingerprint, classIris.size(), resumed, verbose);
+    }
+
+    /**
+     * @return `true` if the class has been committed by an earlier run.
+     */
+    public boolean isCommitted (int index) {
+        return this.resumed.get(index);
+    }
+
+    public void written (int index) {
+        this.written.set(index);
+    }
+
+    /**
+     * Marks everything written so far as committed and saves the state.
+     */
+    @Override
+    public void committed () throws IOException {
+        if (this.written.isEmpty()) {
+            return;
+        }
+        this.committed.or(this.written);
+        this.written.clear();
+        this.write();
+        if (this.verbose) {
+            System.out.println("Checkpoint: " + this.committed.cardinality() + " of " + this.numClasses + " classes committed");
+        }
+    }
+
+    /**
+     * Removes the state file once the import is complete.
+     */
+    public void finish () throws IOException {
+        Files.deleteIfExists(this.file.toPath());
+    }
+
+    public int getNumResumed () {
+        return this.resumed.cardinality();
+    }
+
+    /**
+     * Writes the state. The file is replaced atomically, so a crash while
+     * writing leaves the previous state.
+     */
+    private void write () throws IOException {
+        File tmp = new File(this.file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(this.fingerprint);
+            out.writeInt(this.numClasses);
+            long[] words = this.committed.toLongArray();
+            out.writeInt(words.length);
+            for (long word: words) {
+                out.writeLong(word);
+            }
+        }
+        Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String getFingerprint (List<String> classIris) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String iri: classIris) {
+                digest.update(iri.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return Hex.encodeHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.refinery_platform.owl2neo4j;
+
+/** JSON **/
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timing and counts of a single import.
+ *
+ * Phases:
+ *
+ * - `parse`: Loading the ontology and its imports
+ * - `classify`: Building the class hierarchy, or reading it from the cache
+ * - `extract`: Extracting the classes, without the time spent in the sink
+ * - `write`: Time spent in the sink, i.e. writing to Neo4J or files
+ *
+ * Only accessed by the thread running the import.
+ */
+class ImportMetrics {
+
+    private final String acronym;
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    private MeteredSink sink;
+    private UriCache uriCache;
+    private long numClasses = 0;
+    private int numResumed = 0;
+
+    public ImportMetrics (String acronym) {
+        this.acronym = acronym;
+    }
+
+    /**
+     * Adds to the time spent in a phase.
+     */
+    public void addPhase (String phase, long nanos) {
+        Long previous = this.phaseNanos.get(phase);
+        this.phaseNanos.put(phase, (previous == null ? 0 : previous) + nanos);
+    }
+
+    public void setSink (MeteredSink sink) {
+        this.sink = sink;
+    }
+
+    public void setUriCache (UriCache uriCache) {
+        this.uriCache = uriCache;
+    }
+
+    public void classWritten () {
+        this.numClasses++;
+    }
+
+    public void setNumResumed (int numResumed) {
+        this.numResumed = numResumed;
+    }
+
+    /**
+     * @return One line summary of the phases.
+     */
+    public String getStats () {
+        StringBuilder stats = new StringBuilder("Phases:");
+        String separator = " ";
+        for (Map.Entry<String, Long> phase: this.getPhases().entrySet()) {
+            stats.append(separator)
+                .append(phase.getKey()).append(" ")
+                .append(String.format("%.2f", phase.getValue() / 1000000000.0)).append(" sec");
+            separator = ", ";
+        }
+        return stats.toString();
+    }
+
+    public JsonObject toJson () {
+        JsonObjectBuilder phases = Json.createObjectBuilder();
+        for (Map.Entry<String, Long> phase: this.getPhases().entrySet()) {
+            phases.add(phase.getKey(), phase.getValue() / 1000000000.0);
+        }
+
+        JsonObjectBuilder json = Json.createObjectBuilder()
+            .add("acronym", this.acronym)
+            .add("phaseSeconds", phases)
+            .add("classes", this.numClasses)
+            .add("resumedClasses", this.numResumed);
+        if (this.sink != null) {
+            this.sink.addTo(json);
+        }
+        if (this.uriCache != null) {
+            json.add("uriCache", this.uriCache.toJson());
+        }
+        return json.build();
+    }
+
+    private Map<String, Long> getPhases () {
+        Map<String, Long> phases = new LinkedHashMap<>(this.phaseNanos);
+        if (this.sink != null) {
+            phases.put("write", this.sink.getNanos());
+        }
+        return phases;
+    }
+}
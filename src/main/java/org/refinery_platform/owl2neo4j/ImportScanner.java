@@ -0,0 +1,154 @@
+package org.refinery_platform.owl2neo4j;
+
+/** OWL API */
+import org.semanticweb.owlapi.model.IRI;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the imports of an ontology document without parsing the document.
+ *
+ * Imports are declared in the header of a document, so only the header is
+ * read. Supported are RDF/XML, where the `owl:Ontology` element has to be the
+ * first element, the functional syntax (`.ofn`) and OBO (`.obo`). For other
+ * formats, or if the header can't be read, no imports are returned. Imports
+ * are then simply loaded while the document is parsed.
+ */
+class ImportScanner {
+
+    private static final String OWL_NS = "http://www.w3.org/2002/07/owl#";
+    private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+    private static final Pattern FUNCTIONAL_IMPORT = Pattern.compile("Import\\(\\s*<([^>]+)>\\s*\\)");
+    // Any expression other than the header's prefixes, ontology and imports
+    private static final Pattern FUNCTIONAL_EXPRESSION = Pattern.compile("^\\s*(?!Prefix|Ontology|Import)[A-Z][A-Za-z]*\\(");
+    private static final Pattern OBO_IMPORT = Pattern.compile("^import:\\s*(\\S+)");
+
+    /**
+     * @return Absolute IRIs imported by the document.
+     */
+    public static List<IRI> scan (Path path) {
+        String name = path.getFileName().toString().toLowerCase().replaceFirst("\\.(gz|bz2)$", "");
+        try (InputStream in = LocalDocumentSource.open(path)) {
+            if (name.endsWith(".ofn")) {
+                return scanFunctional(in);
+            }
+            if (name.endsWith(".obo")) {
+                return scanObo(in);
+            }
+            return scanRdfXml(in);
+        } catch (IOException | XMLStreamException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    private static List<IRI> scanRdfXml (InputStream in) throws XMLStreamException, IOException {
+        List<IRI> imports = new ArrayList<>();
+
+        // Skip documents that aren't XML, e.g. Turtle, instead of reading
+        // them until the XML parser gives up.
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(1024);
+        int c;
+        do {
+            c = buffered.read();
+        } while (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == 0xEF || c == 0xBB || c == 0xBF);
+        buffered.reset();
+        if (c != '<') {
+            return imports;
+        }
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Entities declared in the document, e.g. `&obo;`, are used in the
+        // IRIs of imports. External ones aren't needed.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(buffered);
+        try {
+            int depth = 0;
+            int ontologyDepth = -1;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    boolean isOwl = OWL_NS.equals(reader.getNamespaceURI());
+                    if (ontologyDepth < 0) {
+                        if (isOwl && "Ontology".equals(reader.getLocalName())) {
+                            ontologyDepth = depth;
+                        } else if (depth > 1) {
+                            // The first element isn't the ontology
+                            break;
+                        }
+                    } else if (isOwl && "imports".equals(reader.getLocalName())) {
+                        String resource = reader.getAttributeValue(RDF_NS, "resource");
+                        addImport(imports, resource);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == ontologyDepth) {
+                        break;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return imports;
+    }
+
+    private static List<IRI> scanFunctional (InputStream in) throws IOException {
+        List<IRI> imports = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher matcher = FUNCTIONAL_IMPORT.matcher(line);
+            boolean found = false;
+            while (matcher.find()) {
+                addImport(imports, matcher.group(1));
+                found = true;
+            }
+            if (!found && FUNCTIONAL_EXPRESSION.matcher(line).find()) {
+                break;
+            }
+        }
+        return imports;
+    }
+
+    private static List<IRI> scanObo (InputStream in) throws IOException {
+        List<IRI> imports = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null && !line.startsWith("[")) {
+            Matcher matcher = OBO_IMPORT.matcher(line);
+            if (matcher.find()) {
+                addImport(imports, matcher.group(1));
+            }
+        }
+        return imports;
+    }
+
+    private static void addImport (List<IRI> imports, String iri) {
+        if (iri == null) {
+            return;
+        }
+        IRI imported = IRI.create(iri.trim());
+        // Relative imports are resolved by the parser
+        if (imported.isAbsolute() && !imports.contains(imported)) {
+            imports.add(imported);
+        }
+    }
+}
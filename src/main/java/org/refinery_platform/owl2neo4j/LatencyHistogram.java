@@ -0,0 +1,71 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with logarithmic buckets, so that percentiles can be
+ * reported without keeping every single duration.
+ *
+ * Bucket `i` holds durations of up to `GROWTH`^i microseconds, i.e. reported
+ * percentiles are at most 5% above the actual value. Durations above the last
+ * bucket end up in the last one. Thread-safe.
+ */
+class LatencyHistogram {
+
+    private static final double GROWTH = 1.05;
+    // 1.05^460 microseconds are about 1.5 hours
+    private static final int NUM_BUCKETS = 460;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record (long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        int bucket = (int) Math.ceil(Math.log(micros) / Math.log(GROWTH));
+        this.buckets.incrementAndGet(Math.min(bucket, NUM_BUCKETS - 1));
+        this.count.incrementAndGet();
+        this.totalNanos.addAndGet(nanos);
+        long max = this.maxNanos.get();
+        while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+            max = this.maxNanos.get();
+        }
+    }
+
+    public long getCount () {
+        return this.count.get();
+    }
+
+    /**
+     * @param percentile E.g. 0.95
+     * @return Upper bound of the duration below which `percentile` of all
+     *   durations fall, or 0 if nothing has been recorded.
+     */
+    public double getPercentileMillis (double percentile) {
+        long total = this.count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += this.buckets.get(i);
+            if (seen >= rank) {
+                // Never beyond the longest duration actually seen
+                return Math.min(Math.pow(GROWTH, i) / 1000, this.getMaxMillis());
+            }
+        }
+        return this.getMaxMillis();
+    }
+
+    public double getMeanMillis () {
+        long total = this.count.get();
+        return total == 0 ? 0 : this.totalNanos.get() / 1000000.0 / total;
+    }
+
+    public double getMaxMillis () {
+        return this.maxNanos.get() / 1000000.0;
+    }
+}
@@ -0,0 +1,113 @@
+package org.refinery_platform.owl2neo4j;
+
+/** OWL API */
+import org.semanticweb.owlapi.io.OWLOntologyDocumentSource;
+import org.semanticweb.owlapi.io.OWLOntologyInputSourceException;
+import org.semanticweb.owlapi.model.IRI;
+
+/** Apache Commons */
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.io.ByteOrderMark;
+import org.apache.commons.io.input.BOMInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Ontology document in a local file, which may be compressed with gzip
+ * (`.gz`) or bzip2 (`.bz2`).
+ *
+ * Unlike the OWL API's `StreamDocumentSource`, the document is never held in
+ * memory. Every parser that tries to read the document gets a new stream
+ * read through a file channel with a large buffer.
+ */
+class LocalDocumentSource implements OWLOntologyDocumentSource {
+
+    private static final int BUFFER_SIZE = 1048576;
+
+    private final Path path;
+    private final IRI documentIRI;
+
+    public LocalDocumentSource (Path path, IRI documentIRI) {
+        this.path = path;
+        this.documentIRI = documentIRI;
+    }
+
+    /**
+     * @return `true` if the file name has an extension of a compression
+     *   format that is read by this source.
+     */
+    public static boolean isCompressed (Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".gz") || name.endsWith(".bz2");
+    }
+
+    /**
+     * Opens a new stream of the uncompressed document.
+     */
+    public static InputStream open (Path path) throws IOException {
+        InputStream in = new BufferedInputStream(
+            Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ)),
+            BUFFER_SIZE
+        );
+        String name = path.getFileName().toString().toLowerCase();
+        try {
+            if (name.endsWith(".gz")) {
+                return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+            }
+            if (name.endsWith(".bz2")) {
+                return new BufferedInputStream(new BZip2CompressorInputStream(in), BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    @Override
+    public boolean isReaderAvailable () {
+        return true;
+    }
+
+    @Override
+    public Reader getReader () {
+        return new InputStreamReader(this.getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean isInputStreamAvailable () {
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream () {
+        try {
+            // Parsers choke on byte order marks
+            return new BOMInputStream(
+                open(this.path),
+                ByteOrderMark.UTF_8,
+                ByteOrderMark.UTF_16LE,
+                ByteOrderMark.UTF_16BE,
+                ByteOrderMark.UTF_32LE,
+                ByteOrderMark.UTF_32BE
+            );
+        } catch (IOException e) {
+            throw new OWLOntologyInputSourceException(e);
+        }
+    }
+
+    @Override
+    public IRI getDocumentIRI () {
+        return this.documentIRI;
+    }
+}
@@ -0,0 +1,133 @@
+package org.refinery_platform.owl2neo4j;
+
+/** JSON **/
+import javax.json.JsonObjectBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Passes everything on to another sink and counts what is written as well as
+ * the time spent in the other sink.
+ */
+class MeteredSink implements GraphSink {
+
+    private final GraphSink sink;
+
+    private long nanos = 0;
+    private long numNodes = 0;
+    private long numReferences = 0;
+    private long numProperties = 0;
+    private long numEdges = 0;
+    private long numDeletions = 0;
+
+    public MeteredSink (GraphSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return The sink everything is passed on to.
+     */
+    public GraphSink getSink () {
+        return this.sink;
+    }
+
+    @Override
+    public void upsertNode (String label, String uri, Map<String, String> properties) throws IOException {
+        long start = System.nanoTime();
+        this.sink.upsertNode(label, uri, properties);
+        this.nanos += System.nanoTime() - start;
+        this.numNodes++;
+        this.numProperties += properties.size();
+    }
+
+    @Override
+    public void referenceNode (String label, String uri, Map<String, String> properties) throws IOException {
+        long start = System.nanoTime();
+        this.sink.referenceNode(label, uri, properties);
+        this.nanos += System.nanoTime() - start;
+        this.numReferences++;
+        this.numProperties += properties.size();
+    }
+
+    @Override
+    public void upsertEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        long start = System.nanoTime();
+        this.sink.upsertEdge(srcLabel, srcUri, destLabel, destUri, type);
+        this.nanos += System.nanoTime() - start;
+        this.numEdges++;
+    }
+
+    @Override
+    public void removeProperty (String label, String uri, String name) throws IOException {
+        long start = System.nanoTime();
+        this.sink.removeProperty(label, uri, name);
+        this.nanos += System.nanoTime() - start;
+        this.numDeletions++;
+    }
+
+    @Override
+    public void deleteEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        long start = System.nanoTime();
+        this.sink.deleteEdge(srcLabel, srcUri, destLabel, destUri, type);
+        this.nanos += System.nanoTime() - start;
+        this.numDeletions++;
+    }
+
+    @Override
+    public void releaseNode (String label, String uri) throws IOException {
+        long start = System.nanoTime();
+        this.sink.releaseNode(label, uri);
+        this.nanos += System.nanoTime() - start;
+        this.numDeletions++;
+    }
+
+    @Override
+    public void flush () throws IOException {
+        long start = System.nanoTime();
+        this.sink.flush();
+        this.nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void checkpoint () throws IOException {
+        long start = System.nanoTime();
+        this.sink.checkpoint();
+        this.nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void commit () throws IOException {
+        long start = System.nanoTime();
+        this.sink.commit();
+        this.nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close () throws IOException {
+        long start = System.nanoTime();
+        this.sink.close();
+        this.nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return Time spent in the other sink.
+     */
+    public long getNanos () {
+        return this.nanos;
+    }
+
+    /**
+     * Adds the counts to a JSON report.
+     */
+    public void addTo (JsonObjectBuilder json) {
+        long numWrites = this.numNodes + this.numReferences + this.numProperties + this.numEdges + this.numDeletions;
+        double seconds = this.nanos / 1000000000.0;
+        json.add("nodes", this.numNodes)
+            .add("nodeReferences", this.numReferences)
+            .add("properties", this.numProperties)
+            .add("relationships", this.numEdges)
+            .add("deletions", this.numDeletions)
+            .add("writesPerSecond", seconds > 0 ? numWrites / seconds : 0);
+    }
+}
@@ -0,0 +1,137 @@
+package org.refinery_platform.owl2neo4j;
+
+/** JSON **/
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the whole run: requests to Neo4J, which are shared by all
+ * imports, and the `ImportMetrics` of every import. Written as JSON with
+ * `--metrics-out`, so that runs can be compared across ontology releases and
+ * versions of the importer.
+ *
+ * Counting is always on. It only costs a few atomic increments per request.
+ */
+class MetricsReport {
+
+    private static final MetricsReport instance = new MetricsReport();
+
+    // HTTP requests, including heartbeats and rollbacks
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong numErrors = new AtomicLong();
+    // Size of the JSON sent to Neo4J before compression
+    private final AtomicLong bytesSent = new AtomicLong();
+    // Statements sent via HTTP or Bolt, including replayed ones
+    private final AtomicLong numStatements = new AtomicLong();
+    private final AtomicLong numRetries = new AtomicLong();
+
+    private final List<ImportMetrics> imports = Collections.synchronizedList(new ArrayList<ImportMetrics>());
+
+    static MetricsReport get () {
+        return instance;
+    }
+
+    public void request (long nanos, long bytes, boolean failed) {
+        this.latency.record(nanos);
+        this.bytesSent.addAndGet(bytes);
+        if (failed) {
+            this.numErrors.incrementAndGet();
+        }
+    }
+
+    public void statements (int count) {
+        this.numStatements.addAndGet(count);
+    }
+
+    public void retried () {
+        this.numRetries.incrementAndGet();
+    }
+
+    public void add (ImportMetrics metrics) {
+        this.imports.add(metrics);
+    }
+
+    /**
+     * @return One line summary of the statements and requests.
+     */
+    public String getStats () {
+        String stats = "Statements: " + this.numStatements.get() + ", " + this.numRetries.get() + " retries";
+        if (this.latency.getCount() == 0) {
+            // Bolt
+            return stats;
+        }
+        return stats + ", " + this.latency.getCount() + " requests (p50 " +
+            String.format("%.1f", this.latency.getPercentileMillis(0.5)) + " ms, p95 " +
+            String.format("%.1f", this.latency.getPercentileMillis(0.95)) + " ms, p99 " +
+            String.format("%.1f", this.latency.getPercentileMillis(0.99)) + " ms)";
+    }
+
+    /**
+     * @param totalNanos Duration of the whole run
+     * @param ontologyCache Shared cache of imported ontologies. May be `null`.
+     */
+    public JsonObject toJson (long totalNanos, OntologyCache ontologyCache) {
+        double seconds = totalNanos / 1000000000.0;
+
+        JsonObjectBuilder requests = Json.createObjectBuilder()
+            .add("count", this.latency.getCount())
+            .add("errors", this.numErrors.get())
+            .add("retries", this.numRetries.get())
+            .add("bytesSent", this.bytesSent.get())
+            .add("statements", this.numStatements.get())
+            .add("statementsPerSecond", seconds > 0 ? this.numStatements.get() / seconds : 0)
+            .add("latencyMillis", Json.createObjectBuilder()
+                .add("p50", this.latency.getPercentileMillis(0.5))
+                .add("p95", this.latency.getPercentileMillis(0.95))
+                .add("p99", this.latency.getPercentileMillis(0.99))
+                .add("mean", this.latency.getMeanMillis())
+                .add("max", this.latency.getMaxMillis())
+            );
+
+        JsonArrayBuilder ontologies = Json.createArrayBuilder();
+        synchronized (this.imports) {
+            for (ImportMetrics metrics: this.imports) {
+                ontologies.add(metrics.toJson());
+            }
+        }
+
+        JsonObjectBuilder report = Json.createObjectBuilder()
+            .add("version", Owl2Neo4J.VERSION)
+            .add("seconds", seconds)
+            .add("requests", requests);
+        if (ontologyCache != null) {
+            report.add("ontologyCache", ontologyCache.toJson());
+        }
+        return report.add("ontologies", ontologies).build();
+    }
+
+    public void write (File file, long totalNanos, OntologyCache ontologyCache) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+            JsonWriter writer = Json.createWriterFactory(
+                Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true)
+            ).createWriter(out)
+        ) {
+            writer.writeObject(this.toJson(totalNanos, ontologyCache));
+        }
+    }
+}
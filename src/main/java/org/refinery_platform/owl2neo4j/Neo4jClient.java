@@ -0,0 +1,327 @@
+package org.refinery_platform.owl2neo4j;
+
+/** Apache HttpComponents */
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+
+/** JSON */
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP client for Neo4J's REST API shared by all imports.
+ *
+ * - Connections are pooled and kept alive between requests, so requests
+ *   don't pay for a new TCP (and TLS) handshake.
+ * - Request bodies can be gzipped, which pays off for large batches of
+ *   statements on slow networks.
+ * - Responses are read with a streaming parser that only picks out the
+ *   parts the import needs instead of building a JSON tree of the whole
+ *   response. See `Response`.
+ * - Open transactions are kept alive by a `TransactionHeartbeat`.
+ * - Connecting, waiting for a pooled connection and waiting for a response
+ *   time out, so that a stalled server doesn't block writers and the
+ *   heartbeat forever.
+ */
+class Neo4jClient {
+
+    // Idle pooled connections are closed after this many seconds
+    private static final int CONNECTION_TTL = 60;
+
+    private static Neo4jClient instance;
+
+    private final CloseableHttpClient client;
+    private final boolean gzip;
+    private final TransactionHeartbeat heartbeat;
+
+    /**
+     * Picked out parts of a response of the transactional endpoint.
+     */
+    static class Response {
+        int status;
+        // `Location` header of a new transaction
+        String location;
+        // Number of entries in `results`, i.e. of successful statements
+        int numResults = 0;
+        // First column of the first row of the first result
+        String firstValue;
+        // All rows of the first result
+        List<List<String>> rows = new ArrayList<>();
+        // `transaction.expires` of an open transaction
+        String expires;
+        // `Date` header, i.e. the server's time
+        String date;
+        // Code and message of the first error
+        String errorCode;
+        String errorMessage;
+
+        public boolean hasError () {
+            return this.errorCode != null;
+        }
+    }
+
+    private Neo4jClient (String authorization, int maxConnections, int connectTimeout, int timeout, boolean gzip, boolean verbose) {
+        this.gzip = gzip;
+        this.heartbeat = new TransactionHeartbeat(this, verbose);
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(CONNECTION_TTL, TimeUnit.SECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        // All requests go to the same server
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        List<Header> headers = new ArrayList<>();
+        headers.add(new BasicHeader(HttpHeaders.ACCEPT, "application/json; charset=UTF-8"));
+        // Yields better performance and reduces memory load on the Neo4J server
+        // http://neo4j.com/docs/stable/rest-api-streaming.html
+        headers.add(new BasicHeader("X-Stream", "true"));
+        if (authorization != null) {
+            headers.add(new BasicHeader(HttpHeaders.AUTHORIZATION, authorization));
+        }
+
+        // Timeouts are in seconds, 0 waits forever. Requests that time out
+        // are retried with smaller batches, see `RetryPolicy`.
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(connectTimeout * 1000)
+            .setSocketTimeout(timeout * 1000)
+            // All pooled connections might be busy with slow requests
+            .setConnectionRequestTimeout(timeout * 1000)
+            .build();
+
+        this.client = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultHeaders(headers)
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+    }
+
+    /**
+     * Sets up the shared client. Must be called before the first request.
+     */
+    static synchronized void configure (String authorization, int maxConnections, int connectTimeout, int timeout, boolean gzip, boolean verbose) {
+        if (instance == null) {
+            instance = new Neo4jClient(authorization, maxConnections, connectTimeout, timeout, gzip, verbose);
+        }
+    }
+
+    static synchronized Neo4jClient get () {
+        if (instance == null) {
+            throw new IllegalStateException("HTTP client hasn't been configured");
+        }
+        return instance;
+    }
+
+    static synchronized void shutdown () throws IOException {
+        if (instance != null) {
+            instance.heartbeat.shutdown();
+            instance.client.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * @return Status code of the response. The response itself is discarded.
+     */
+    public int getStatus (String url) throws IOException {
+        try (CloseableHttpResponse response = this.client.execute(new HttpGet(url))) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    /**
+     * Posts a JSON body to the transactional endpoint. Requests to an open
+     * transaction wait for a running refresh of the transaction and push the
+     * next one back.
+     */
+    public Response post (String url, String body) throws IOException {
+        String transactionId = TransactionHeartbeat.getTransactionId(url);
+        if (transactionId == null) {
+            Response response = this.send(url, body);
+            // Might have opened a transaction
+            this.heartbeat.update(url, response);
+            return response;
+        }
+        synchronized (this.heartbeat.getLock(transactionId)) {
+            Response response = this.send(url, body);
+            this.heartbeat.update(url, response);
+            return response;
+        }
+    }
+
+    /**
+     * Rolls back an open transaction and stops keeping it alive. Neo4J
+     * answers with 404 if it has already rolled back the transaction itself.
+     */
+    public Response rollback (String url) throws IOException {
+        String transactionId = TransactionHeartbeat.getTransactionId(url);
+        synchronized (this.heartbeat.getLock(transactionId)) {
+            Response response = this.execute(new HttpDelete(url), 0);
+            // No `expires` anymore, so the transaction is forgotten
+            this.heartbeat.update(url, response);
+            return response;
+        }
+    }
+
+    /**
+     * Posts a JSON body without involving the heartbeat.
+     */
+    Response send (String url, String body) throws IOException {
+        HttpPost request = new HttpPost(url);
+        HttpEntity entity = new StringEntity(body, ContentType.APPLICATION_JSON);
+        long bytes = entity.getContentLength();
+        if (this.gzip) {
+            entity = new GzipCompressingEntity(entity);
+        }
+        request.setEntity(entity);
+        return this.execute(request, bytes);
+    }
+
+    /**
+     * Sends a request and reads the response. The time until the response
+     * has been read is recorded in the `MetricsReport`.
+     *
+     * @param bytes Size of the request body before compression
+     */
+    private Response execute (HttpUriRequest request, long bytes) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try (CloseableHttpResponse httpResponse = this.client.execute(request)) {
+            Response response = new Response();
+            response.status = httpResponse.getStatusLine().getStatusCode();
+            Header location = httpResponse.getFirstHeader(HttpHeaders.LOCATION);
+            if (location != null) {
+                response.location = location.getValue();
+            }
+            Header date = httpResponse.getFirstHeader(HttpHeaders.DATE);
+            if (date != null) {
+                response.date = date.getValue();
+            }
+            HttpEntity responseEntity = httpResponse.getEntity();
+            if (responseEntity != null) {
+                try (InputStream in = responseEntity.getContent()) {
+                    parse(in, response);
+                }
+            }
+            if (response.status >= 400 && !response.hasError()) {
+                response.errorCode = "HTTP " + response.status;
+                response.errorMessage = httpResponse.getStatusLine().getReasonPhrase();
+            }
+            failed = response.hasError();
+            return response;
+        } finally {
+            MetricsReport.get().request(System.nanoTime() - start, bytes, failed);
+        }
+    }
+
+    /**
+     * Streams through the response and keeps what's listed in `Response`.
+     *
+     * Every container on the way down is tracked by its key or, in arrays, by
+     * its index, so that values can be matched by their path.
+     */
+    static void parse (InputStream in, Response response) {
+        try (JsonParser parser = Json.createParser(in)) {
+            // Path of keys and array indices. Deeper levels aren't needed.
+            String[] keys = new String[8];
+            int[] indices = new int[8];
+            boolean[] isArray = new boolean[8];
+            int depth = -1;
+
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                switch (event) {
+                    case KEY_NAME:
+                        if (depth < keys.length) {
+                            keys[depth] = parser.getString();
+                        }
+                        break;
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        if (depth >= 0 && depth < keys.length && isArray[depth]) {
+                            indices[depth]++;
+                            if (depth == 1 && "results".equals(keys[0])) {
+                                response.numResults++;
+                            }
+                        }
+                        depth++;
+                        if (depth < keys.length) {
+                            isArray[depth] = event == JsonParser.Event.START_ARRAY;
+                            indices[depth] = -1;
+                            keys[depth] = null;
+                        }
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+                    default:
+                        // A value
+                        if (depth >= keys.length) {
+                            break;
+                        }
+                        if (isArray[depth]) {
+                            indices[depth]++;
+                        }
+                        String value;
+                        if (event == JsonParser.Event.VALUE_NULL) {
+                            value = null;
+                        } else if (event == JsonParser.Event.VALUE_TRUE || event == JsonParser.Event.VALUE_FALSE) {
+                            value = Boolean.toString(event == JsonParser.Event.VALUE_TRUE);
+                        } else {
+                            value = parser.getString();
+                        }
+                        pick(keys, indices, depth, value, response);
+                }
+            }
+        }
+    }
+
+    private static void pick (String[] keys, int[] indices, int depth, String value, Response response) {
+        // errors[0].code and errors[0].message
+        if (depth == 2 && "errors".equals(keys[0]) && indices[1] == 0) {
+            if ("code".equals(keys[2])) {
+                response.errorCode = value;
+            } else if ("message".equals(keys[2])) {
+                response.errorMessage = value;
+            }
+        }
+        // transaction.expires
+        else if (depth == 1 && "transaction".equals(keys[0]) && "expires".equals(keys[1])) {
+            response.expires = value;
+        }
+        // results[0].data[i].row[j]
+        else if (
+            depth == 5 && "results".equals(keys[0]) && indices[1] == 0 &&
+            "data".equals(keys[2]) && "row".equals(keys[4])
+        ) {
+            if (indices[3] == 0 && indices[5] == 0) {
+                response.firstValue = value;
+            }
+            while (response.rows.size() <= indices[3]) {
+                response.rows.add(new ArrayList<String>());
+            }
+            response.rows.get(indices[3]).add(value);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package org.refinery_platform.owl2neo4j;
+
+/** OWL API */
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.OWLOntologyDocumentSource;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyFormat;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.util.AutoIRIMapper;
+import uk.ac.manchester.cs.owl.owlapi.ParsableOWLOntologyFactory;
+
+/** JSON **/
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ontologies and directory scans shared by the imports of a batch.
+ *
+ * Every import has its own `OWLOntologyManager`, as managers of the OWL API 3
+ * mustn't be used by several threads. Instead of sharing a manager, imported
+ * ontologies are remembered by their document IRI once they have been
+ * parsed. When another ontology imports the same document, its manager
+ * creates the ontology from the remembered axioms, which are immutable and
+ * shared, instead of parsing the document again.
+ *
+ * `AutoIRIMapper`s are kept per directory so that every directory is only
+ * scanned once.
+ */
+class OntologyCache {
+
+    /**
+     * Everything needed to recreate a parsed ontology in another manager.
+     */
+    private static class ParsedOntology {
+        final OWLOntologyID id;
+        final OWLOntologyFormat format;
+        final Set<OWLImportsDeclaration> imports;
+        final Set<OWLAnnotation> annotations;
+        final Set<OWLAxiom> axioms;
+
+        ParsedOntology (OWLOntology ontology, OWLOntologyFormat format) {
+            this.id = ontology.getOntologyID();
+            this.format = format;
+            this.imports = new HashSet<>(ontology.getImportsDeclarations());
+            this.annotations = new HashSet<>(ontology.getAnnotations());
+            this.axioms = new HashSet<>(ontology.getAxioms());
+        }
+    }
+
+    /**
+     * Creates ontologies from the cache and falls back to parsing them.
+     */
+    private class CachingOntologyFactory extends ParsableOWLOntologyFactory {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public OWLOntology loadOWLOntology (OWLOntologyDocumentSource documentSource, OWLOntologyCreationHandler handler, OWLOntologyLoaderConfiguration configuration) throws OWLOntologyCreationException {
+            ParsedOntology parsed = ontologies.get(documentSource.getDocumentIRI());
+            if (parsed == null) {
+                misses.incrementAndGet();
+                return super.loadOWLOntology(documentSource, handler, configuration);
+            }
+            hits.incrementAndGet();
+
+            OWLOntologyManager manager = this.getOWLOntologyManager();
+            OWLOntology ontology = this.createOWLOntology(parsed.id, documentSource.getDocumentIRI(), handler);
+            List<OWLOntologyChange> changes = new ArrayList<>();
+            for (OWLImportsDeclaration declaration: parsed.imports) {
+                changes.add(new AddImport(ontology, declaration));
+            }
+            for (OWLAnnotation annotation: parsed.annotations) {
+                changes.add(new AddOntologyAnnotation(ontology, annotation));
+            }
+            manager.applyChanges(changes);
+            manager.addAxioms(ontology, parsed.axioms);
+            handler.setOntologyFormat(ontology, parsed.format);
+
+            // Imports are loaded by the parser, so that's up to us here.
+            for (OWLImportsDeclaration declaration: parsed.imports) {
+                manager.makeLoadImportRequest(declaration, configuration);
+            }
+            return ontology;
+        }
+    }
+
+    private final boolean useLocalFiles;
+    private final Map<File, AutoIRIMapper> mappers = new HashMap<>();
+    private final ConcurrentHashMap<IRI, ParsedOntology> ontologies = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param useLocalFiles Whether imports are looked up in the directory of
+     *   the imported ontology.
+     */
+    public OntologyCache (boolean useLocalFiles) {
+        this.useLocalFiles = useLocalFiles;
+    }
+
+    /**
+     * Creates a manager for loading an ontology from the given directory.
+     */
+    public OWLOntologyManager createManager (File directory) {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        if (this.useLocalFiles) {
+            manager.addIRIMapper(this.getMapper(directory));
+        }
+        // Factories that are added later are asked first.
+        manager.addOntologyFactory(new CachingOntologyFactory());
+        return manager;
+    }
+
+    /**
+     * Remembers the imports of a loaded ontology for other imports.
+     *
+     * The ontology itself isn't remembered as it's usually not imported by
+     * others and would be kept in memory for the rest of the batch.
+     */
+    public void rememberImports (OWLOntologyManager manager, OWLOntology ontology) {
+        for (OWLOntology imported: ontology.getImportsClosure()) {
+            if (imported != ontology) {
+                this.remember(manager, imported);
+            }
+        }
+    }
+
+    /**
+     * Parses the import closure of a local ontology document in parallel
+     * before the document itself is parsed, which then finds all of its
+     * imports in the cache.
+     *
+     * Imports are found with the `ImportScanner` and parsed bottom-up: first
+     * all imports that don't import anything themselves, then the ones that
+     * only import those and so on. Every import is parsed by its own manager.
+     * Imports that fail to parse are skipped. They are parsed again and
+     * reported when the document is loaded.
+     *
+     * @return Number of imports in the import closure that were found.
+     */
+    public int prefetchImports (Path path, final File directory, int threads) throws InterruptedException {
+        // Height of every import in the import graph: 0 for imports without
+        // imports of their own.
+        final Map<IRI, Integer> heights = new HashMap<>();
+        final Map<IRI, IRI> documentIRIs = new HashMap<>();
+        for (IRI imported: ImportScanner.scan(path)) {
+            this.discover(imported, directory, heights, documentIRIs, new HashSet<IRI>());
+        }
+        if (heights.isEmpty()) {
+            return 0;
+        }
+
+        int maxHeight = Collections.max(heights.values());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, heights.size())));
+        try {
+            for (int height = 0; height <= maxHeight; height++) {
+                List<Future<?>> results = new ArrayList<>();
+                for (Map.Entry<IRI, Integer> entry: heights.entrySet()) {
+                    if (entry.getValue() != height) {
+                        continue;
+                    }
+                    final IRI imported = entry.getKey();
+                    results.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (ontologies.containsKey(documentIRIs.get(imported))) {
+                                return;
+                            }
+                            OWLOntologyManager manager = createManager(directory);
+                            try {
+                                OWLOntology ontology = manager.loadOntology(imported);
+                                for (OWLOntology loaded: ontology.getImportsClosure()) {
+                                    remember(manager, loaded);
+                                }
+                            } catch (OWLOntologyCreationException e) {
+                                // Reported when the importing ontology is loaded
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> result: results) {
+                    try {
+                        result.get();
+                    } catch (ExecutionException e) {
+                        // Same as above
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return heights.size();
+    }
+
+    public String getStats () {
+        return "Ontology cache: " + this.ontologies.size() + " imported ontologies (" +
+            this.hits.get() + " hits, " + this.misses.get() + " misses), " +
+            this.getNumScannedDirectories() + " scanned directories";
+    }
+
+    public JsonObject toJson () {
+        return Json.createObjectBuilder()
+            .add("importedOntologies", this.ontologies.size())
+            .add("hits", this.hits.get())
+            .add("misses", this.misses.get())
+            .add("scannedDirectories", this.getNumScannedDirectories())
+            .build();
+    }
+
+    /**
+     * Finds the imports of an import and computes its height.
+     */
+    private int discover (IRI imported, File directory, Map<IRI, Integer> heights, Map<IRI, IRI> documentIRIs, Set<IRI> path) {
+        Integer height = heights.get(imported);
+        if (height != null) {
+            return height;
+        }
+        if (!path.add(imported)) {
+            // Cyclic imports are parsed together
+            return 0;
+        }
+
+        IRI documentIRI = null;
+        if (this.useLocalFiles) {
+            documentIRI = this.getMapper(directory).getDocumentIRI(imported);
+        }
+        if (documentIRI == null) {
+            documentIRI = imported;
+        }
+        documentIRIs.put(imported, documentIRI);
+
+        height = 0;
+        // Remote documents aren't downloaded twice. Their imports are loaded
+        // while they are parsed.
+        if ("file".equals(documentIRI.getScheme()) && !this.ontologies.containsKey(documentIRI)) {
+            for (IRI child: ImportScanner.scan(Paths.get(documentIRI.toURI()))) {
+                height = Math.max(height, this.discover(child, directory, heights, documentIRIs, path) + 1);
+            }
+        }
+        path.remove(imported);
+        heights.put(imported, height);
+        return height;
+    }
+
+    private void remember (OWLOntologyManager manager, OWLOntology ontology) {
+        IRI documentIRI = manager.getOntologyDocumentIRI(ontology);
+        if (!this.ontologies.containsKey(documentIRI)) {
+            this.ontologies.putIfAbsent(documentIRI, new ParsedOntology(ontology, manager.getOntologyFormat(ontology)));
+        }
+    }
+
+    // Guarded by the same lock as `getMapper()`
+    private synchronized int getNumScannedDirectories () {
+        return this.mappers.size();
+    }
+
+    private synchronized AutoIRIMapper getMapper (File directory) {
+        AutoIRIMapper mapper = this.mappers.get(directory);
+        if (mapper == null) {
+            mapper = new AutoIRIMapper(directory, true);
+            // Scan right away. Later lookups only read the mapping, which
+            // makes the mapper safe to share between threads.
+            mapper.update();
+            this.mappers.put(directory, mapper);
+        }
+        return mapper;
+    }
+}
@@ -0,0 +1,236 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Everything that has been written for the classes of an ontology: class and
+ * referenced nodes with their properties and their outgoing relationships.
+ *
+ * A snapshot of the last import is stored next to the import and compared to
+ * the snapshot of the new version by `writeChanges()`, so that only the
+ * changes need to be written.
+ *
+ * File format (gzipped): `int` magic number, `int` format version, ontology
+ * version (empty if unknown), `int` number of nodes and for every node its
+ * URI, whether it's a class, its properties as key value pairs and its
+ * relationships as type and target URI pairs.
+ */
+class OntologySnapshot {
+
+    static class NodeState {
+        boolean isClass = false;
+        final Map<String, String> properties = new LinkedHashMap<>();
+        // Relationships as type + "\t" + target URI
+        final Set<String> edges = new LinkedHashSet<>();
+    }
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4f324e53;  // "O2NS"
+
+    private final String version;
+    private final Map<String, NodeState> nodes = new LinkedHashMap<>();
+
+    private long numCreated = 0;
+    private long numUpdated = 0;
+    private long numReleased = 0;
+    private long numEdgesCreated = 0;
+    private long numEdgesDeleted = 0;
+
+    public OntologySnapshot (String version) {
+        this.version = version;
+    }
+
+    public String getVersion () {
+        return this.version;
+    }
+
+    public int size () {
+        return this.nodes.size();
+    }
+
+    /**
+     * Adds the class, its referenced nodes and its relationships.
+     */
+    public void add (ClassRecord record) {
+        NodeState node = this.node(record.uri);
+        node.isClass = true;
+        // The class' own properties win over those of an earlier reference
+        node.properties.clear();
+        node.properties.putAll(record.properties);
+
+        for (Owl2Neo4J.Tuple<String, String> reference: record.references) {
+            NodeState referenced = this.node(reference.x);
+            if (referenced.properties.isEmpty()) {
+                referenced.properties.put("name", reference.y);
+            }
+        }
+
+        for (ClassRecord.Edge edge: record.edges) {
+            this.node(edge.src).edges.add(edge.type + "\t" + edge.dest);
+        }
+    }
+
+    /**
+     * Writes the changes from `previous` to this snapshot to the sink:
+     * new and changed nodes first, then relationships and finally classes
+     * that are gone.
+     *
+     * Class nodes are shared by URI with other ontologies. Nodes that are only
+     * referenced, e.g. superclasses from other ontologies, are never changed
+     * or deleted, and classes that are gone are only released, i.e. deleted
+     * unless another ontology still holds them.
+     */
+    public void writeChanges (OntologySnapshot previous, GraphSink sink, String classLabel) throws IOException {
+        for (Map.Entry<String, NodeState> entry: this.nodes.entrySet()) {
+            NodeState node = entry.getValue();
+            if (node.properties.isEmpty()) {
+                // Only the source of a relationship, e.g. an equivalent class
+                // that has been referenced without properties
+                continue;
+            }
+            NodeState old = previous.nodes.get(entry.getKey());
+            if (old == null || old.properties.isEmpty()) {
+                if (node.isClass) {
+                    sink.upsertNode(classLabel, entry.getKey(), node.properties);
+                } else {
+                    sink.referenceNode(classLabel, entry.getKey(), node.properties);
+                }
+                this.numCreated++;
+            } else if (node.isClass && (!old.isClass || !old.properties.equals(node.properties))) {
+                sink.upsertNode(classLabel, entry.getKey(), node.properties);
+                // Properties of a node that was only referenced have been
+                // written by the ontology it belongs to.
+                if (old.isClass) {
+                    for (String name: old.properties.keySet()) {
+                        if (!node.properties.containsKey(name)) {
+                            sink.removeProperty(classLabel, entry.getKey(), name);
+                        }
+                    }
+                }
+                this.numUpdated++;
+            }
+            sink.checkpoint();
+        }
+
+        for (Map.Entry<String, NodeState> entry: this.nodes.entrySet()) {
+            NodeState old = previous.nodes.get(entry.getKey());
+            for (String edge: entry.getValue().edges) {
+                if (old == null || !old.edges.contains(edge)) {
+                    String[] typeAndDest = edge.split("\t", 2);
+                    sink.upsertEdge(classLabel, entry.getKey(), classLabel, typeAndDest[1], typeAndDest[0]);
+                    this.numEdgesCreated++;
+                    sink.checkpoint();
+                }
+            }
+        }
+
+        for (Map.Entry<String, NodeState> entry: previous.nodes.entrySet()) {
+            NodeState node = this.nodes.get(entry.getKey());
+            // Relationships of classes that are gone are deleted together with
+            // the class, unless another ontology still holds it. Those of
+            // referenced nodes, e.g. equivalent classes, point to this
+            // ontology's classes, so they're deleted right away.
+            if (node == null && entry.getValue().isClass) {
+                continue;
+            }
+            for (String edge: entry.getValue().edges) {
+                if (node == null || !node.edges.contains(edge)) {
+                    String[] typeAndDest = edge.split("\t", 2);
+                    sink.deleteEdge(classLabel, entry.getKey(), classLabel, typeAndDest[1], typeAndDest[0]);
+                    this.numEdgesDeleted++;
+                    sink.checkpoint();
+                }
+            }
+        }
+
+        for (Map.Entry<String, NodeState> entry: previous.nodes.entrySet()) {
+            if (entry.getValue().isClass && !this.nodes.containsKey(entry.getKey())) {
+                sink.releaseNode(classLabel, entry.getKey());
+                this.numReleased++;
+                sink.checkpoint();
+            }
+        }
+    }
+
+    public String getChangeStats () {
+        return this.numCreated + " nodes created, " + this.numUpdated + " updated, " +
+            this.numReleased + " released, " + this.numEdgesCreated + " relationships created, " +
+            this.numEdgesDeleted + " deleted";
+    }
+
+    public static OntologySnapshot read (File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            String version = in.readUTF();
+            OntologySnapshot snapshot = new OntologySnapshot(version.isEmpty() ? null : version);
+            int numNodes = in.readInt();
+            for (int i = 0; i < numNodes; i++) {
+                NodeState node = snapshot.node(in.readUTF());
+                node.isClass = in.readBoolean();
+                int numProperties = in.readInt();
+                for (int j = 0; j < numProperties; j++) {
+                    node.properties.put(in.readUTF(), in.readUTF());
+                }
+                int numEdges = in.readInt();
+                for (int j = 0; j < numEdges; j++) {
+                    node.edges.add(in.readUTF());
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Writes the snapshot. The file is replaced atomically.
+     */
+    public void write (File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(this.version == null ? "" : this.version);
+            out.writeInt(this.nodes.size());
+            for (Map.Entry<String, NodeState> entry: this.nodes.entrySet()) {
+                NodeState node = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(node.isClass);
+                out.writeInt(node.properties.size());
+                for (Map.Entry<String, String> property: node.properties.entrySet()) {
+                    out.writeUTF(property.getKey());
+                    out.writeUTF(property.getValue());
+                }
+                out.writeInt(node.edges.size());
+                for (String edge: node.edges) {
+                    out.writeUTF(edge);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private NodeState node (String uri) {
+        NodeState node = this.nodes.get(uri);
+        if (node == null) {
+            node = new NodeState();
+            this.nodes.put(uri, node);
+        }
+        return node;
+    }
+}
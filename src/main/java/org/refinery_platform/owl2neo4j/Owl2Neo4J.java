@@ -5,22 +5,27 @@ import org.json.JSONTokener;
 import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.reasoner.*;
 import org.semanticweb.owlapi.apibinding.OWLManager;
-import org.semanticweb.owlapi.util.AutoIRIMapper;
 import org.semanticweb.owlapi.util.OWLClassExpressionVisitorAdapter;
 
 /** Reasoner */
 import org.semanticweb.HermiT.Reasoner;
+import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
 
 /** Apache commons */
 import org.apache.commons.cli.*;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.StringUtils;
 
-/** Jersey RESTful client */
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.Headers;
-import com.mashape.unirest.http.JsonNode;
-import com.mashape.unirest.http.HttpResponse;
+/** Neo4J Java driver */
+import org.neo4j.driver.v1.AuthToken;
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Value;
 
 /** JSON **/
 import org.json.JSONObject;
@@ -29,15 +34,25 @@ import javax.json.Json;
 import javax.json.JsonObject;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.nio.file.DirectoryStream;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.lang.Runnable;
 import java.io.FileReader;
 
@@ -50,7 +65,7 @@ import java.nio.file.Paths;
 public class Owl2Neo4J {
 
     private static String REST_ENDPOINT = "/db/data";
-    private static String TRANSACTION_ENDPOINT = "/db/data/transaction";
+    static String TRANSACTION_ENDPOINT = "/db/data/transaction";
 
     public static String ROOT_ONTOLOGY = "OWL";
     public static String ROOT_CLASS = "Thing";
@@ -65,18 +80,61 @@ public class Owl2Neo4J {
     private static String RELATIONSHIP_NODE_LABEL = "Relationship";
     private static String PROPERTY_NODE_LABEL = "Property";
 
+    // Number of statements between two `:commit`s of a Cypher script export
+    private static int CYPHER_SCRIPT_STATEMENTS_PER_TRANSACTION = 10;
+
+    // Formats preferred by `--prefer-compact`, fastest first
+    private static String[] COMPACT_FORMAT_EXTENSIONS = {".ofn", ".obo"};
+
+    // Number of classes an extraction thread claims at once
+    private static int EXTRACTION_CHUNK_SIZE = 64;
+    // Number of extracted classes waiting to be written
+    private static int EXTRACTION_QUEUE_SIZE = 1024;
+
     private String path_to_batch;
     private String path_to_owl;
     private String ontology_name;
     private String ontology_acronym;
     private String server_root_url;
     private String neo4j_authentication_header;
-    private String transaction;
+    private String neo4j_user;
+    private String neo4j_password;
     private Set<String> eqps = new HashSet<>();  // Existential quantification property strings
     private Set<OWLObjectPropertyExpression> eqp = new HashSet<>();  // Existential quantification properties
     private Boolean include_import_closure = false;
     private Boolean no_local_owl_files = false;
-
+    private int flush_size = 500;
+    private long flush_bytes = 1048576;
+    private Boolean bulk_import = false;
+    private int chunk_size = 5000;
+    private String export_csv_dir;
+    private String export_cypher_file;
+    // Shared by all imports of a batch
+    private Writer cypher_script;
+    private Boolean dry_run = false;
+    private int extraction_threads = Runtime.getRuntime().availableProcessors();
+    private int writers = 1;
+    private int queue_depth = 8;
+    private int commit_every = 0;
+    private Boolean two_phase = false;
+    private Boolean compact_graph = false;
+    private String reasoner_name = "hermit";
+    private String cache_dir;
+    private String incremental_dir;
+    private Boolean prefer_compact = false;
+    private int http_connections = 20;
+    private Boolean http_gzip = false;
+    // Seconds. Waiting for `db.awaitIndexes()` takes up to 10 minutes.
+    private int http_timeout = 900;
+    private int connect_timeout = 30;
+    private String checkpoint_dir;
+    private Boolean resume = false;
+    private int max_retries = 5;
+    private Boolean skip_schema = false;
+    private Boolean acronym_index = false;
+    private String metrics_out;
+
+    private OntologyCache ontologyCache;
     private OWLOntologyManager manager;
     private OWLOntology ontology;
     private IRI documentIRI;
@@ -84,9 +142,24 @@ public class Owl2Neo4J {
     private String ontUri;
     private String versionIri;
 
+    private GraphSink sink;
+    // The sink behind the metering, e.g. for reading from Neo4J
+    private GraphSink target;
+    private ImportMetrics metrics;
+    private TwoPhaseWriter twoPhaseWriter;
+    private UriCache uriCache;
+    private ClassGraph classGraph;
+    // Built by `indexOntology()` for the extraction threads
+    private Map<IRI, Label> ontologyLabels;
+    private List<Map<IRI, Label>> importLabels;
+    private Map<OWLClass, List<OWLClassExpression>> assertedSuperClasses;
+    private OntologySnapshot snapshot;
+    private ImportCheckpoint checkpoint;
     private Logger cqlLogger;
     private FileHandler fh;
     private Boolean verbose_output = false;
+    // Whether other ontologies are imported at the same time
+    private Boolean concurrent = false;
 
     public static final String ANSI_RESET = "\u001B[0m";
     public static final String ANSI_RED = "\u001B[31m";
@@ -154,6 +227,35 @@ public class Owl2Neo4J {
         }
     }
 
+    /**
+     * Thrown when Neo4J rejects one statement of a multi-statement request.
+     */
+    public static class StatementException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        // Neo4J's error code, e.g. `Neo.ClientError.Statement.SyntaxError`
+        private final String code;
+
+        public StatementException(int index, String code, String message) {
+            super(message);
+            this.index = index;
+            this.code = code;
+        }
+
+        /**
+         * @return Index of the failed statement or -1 if the request had no
+         *   statements.
+         */
+        public int getIndex () {
+            return index;
+        }
+
+        public String getCode () {
+            return code;
+        }
+    }
+
     /**
      * Visits existential restrictions and collects the properties which are
      * restricted.
@@ -185,8 +287,20 @@ public class Owl2Neo4J {
 
         long startImport = System.nanoTime();
 
+        if (StringUtils.isNotBlank(ontParser.export_cypher_file)) {
+            try {
+                ontParser.cypher_script = CypherScriptSink.open(new File(ontParser.export_cypher_file));
+            } catch (IOException e) {
+                print_error("Error creating " + ontParser.export_cypher_file);
+                print_error(e.getMessage());
+                System.exit(1);
+            }
+        }
+
         if (StringUtils.isBlank(ontParser.path_to_batch)) {
-            ontParser.checkServer();
+            if (!ontParser.isExporting()) {
+                ontParser.checkServer();
+            }
             ontParser.importOntologies();
         } else {
             JSONArray ontologies = new JSONArray();
@@ -209,29 +323,34 @@ public class Owl2Neo4J {
             }
 
             // Read global properties
+            int parallelism = 1;
             try {
                 if (jsonObject.has("server")) {
                     ontParser.server_root_url = jsonObject.getString("server");
                 }
+                if (jsonObject.has("parallelism")) {
+                    parallelism = jsonObject.getInt("parallelism");
+                }
             } catch (Exception e) {
                 print_error("Error extracting global settings.");
             }
 
-            ontParser.checkServer();
+            if (parallelism < 1) {
+                print_error("`parallelism` has to be at least 1.");
+                System.exit(1);
+            }
+
+            if (parallelism > 1 && StringUtils.isNotBlank(ontParser.export_cypher_file)) {
+                // All ontologies are exported to the same script
+                parallelism = 1;
+            }
+
+            if (!ontParser.isExporting()) {
+                ontParser.checkServer();
+            }
 
-            // Loop over ontologies to be imported and import them
             try {
-                for (int i = 0; i < ontologies.length(); i++) {
-                    ontParser.path_to_owl = new File(basePath, ontologies.getJSONObject(i).getString("o")).getPath();
-                    ontParser.ontology_name = ontologies.getJSONObject(i).getString("n");
-                    ontParser.ontology_acronym = ontologies.getJSONObject(i).getString("a").toUpperCase();
-                    if (ontologies.getJSONObject(i).has("i")) {
-                        ontParser.include_import_closure = ontologies.getJSONObject(i).getBoolean("i");
-                    } else {
-                        ontParser.include_import_closure = false;
-                    }
-                    ontParser.importOntologies();
-                }
+                importBatch(ontParser, ontologies, basePath, parallelism);
             }  catch (Exception e) {
                 print_error("Error during batch import");
                 print_error(e.getMessage());
@@ -244,15 +363,26 @@ public class Owl2Neo4J {
         long totalImportMin = TimeUnit.NANOSECONDS.toMinutes(endImport - startImport);
         long totalImportSec = TimeUnit.NANOSECONDS.toSeconds(endImport - startImport);
 
-        // Unirest has be closed explicitly
+        // Pooled connections have to be closed explicitly
         try {
-            Unirest.shutdown();
+            Neo4jClient.shutdown();
+            BoltSink.disconnect();
         } catch (Exception e) {
-            print_error("Error shutting down Unirest");
+            print_error("Error shutting down the Neo4J client");
             print_error(e.getMessage());
             System.exit(1);
         }
 
+        if (ontParser.cypher_script != null) {
+            try {
+                ontParser.cypher_script.close();
+            } catch (IOException e) {
+                print_error("Error writing " + ontParser.export_cypher_file);
+                print_error(e.getMessage());
+                System.exit(1);
+            }
+        }
+
         // Print some performance related numbers
         if (ontParser.verbose_output) {
             System.out.println("---");
@@ -263,6 +393,19 @@ public class Owl2Neo4J {
                     totalImportSec +
                     " sec"
             );
+            if (!ontParser.isExporting()) {
+                System.out.println(MetricsReport.get().getStats());
+            }
+        }
+
+        if (StringUtils.isNotBlank(ontParser.metrics_out)) {
+            try {
+                MetricsReport.get().write(new File(ontParser.metrics_out), endImport - startImport, ontParser.ontologyCache);
+            } catch (IOException e) {
+                print_error("Error writing metrics to " + ontParser.metrics_out);
+                print_error(e.getMessage());
+                System.exit(1);
+            }
         }
     }
 
@@ -270,18 +413,140 @@ public class Owl2Neo4J {
         parseCommandLineArguments(args);
     }
 
+    /**
+     * Creates an import with the same settings, e.g. for one entry of a
+     * batch. Everything specific to an ontology, like the loaded ontology and
+     * the sink, belongs to the new import only.
+     */
+    private Owl2Neo4J(Owl2Neo4J settings) {
+        this.server_root_url = settings.server_root_url;
+        this.neo4j_authentication_header = settings.neo4j_authentication_header;
+        this.neo4j_user = settings.neo4j_user;
+        this.neo4j_password = settings.neo4j_password;
+        this.eqps = settings.eqps;
+        this.no_local_owl_files = settings.no_local_owl_files;
+        this.flush_size = settings.flush_size;
+        this.flush_bytes = settings.flush_bytes;
+        this.bulk_import = settings.bulk_import;
+        this.chunk_size = settings.chunk_size;
+        this.export_csv_dir = settings.export_csv_dir;
+        this.export_cypher_file = settings.export_cypher_file;
+        this.cypher_script = settings.cypher_script;
+        this.dry_run = settings.dry_run;
+        this.extraction_threads = settings.extraction_threads;
+        this.writers = settings.writers;
+        this.queue_depth = settings.queue_depth;
+        this.commit_every = settings.commit_every;
+        this.two_phase = settings.two_phase;
+        this.compact_graph = settings.compact_graph;
+        this.reasoner_name = settings.reasoner_name;
+        this.cache_dir = settings.cache_dir;
+        this.incremental_dir = settings.incremental_dir;
+        this.prefer_compact = settings.prefer_compact;
+        this.checkpoint_dir = settings.checkpoint_dir;
+        this.resume = settings.resume;
+        this.max_retries = settings.max_retries;
+        this.skip_schema = settings.skip_schema;
+        this.acronym_index = settings.acronym_index;
+        this.metrics_out = settings.metrics_out;
+        this.verbose_output = settings.verbose_output;
+        this.ontologyCache = settings.ontologyCache;
+    }
+
+    /**
+     * Imports the ontologies of a batch file. Every entry is imported by its
+     * own `Owl2Neo4J` instance so that up to `parallelism` entries can be
+     * loaded, classified and written at the same time.
+     */
+    private static void importBatch (Owl2Neo4J settings, JSONArray ontologies, String basePath, int parallelism) throws Exception {
+        // Imports shared by several ontologies are only parsed once
+        settings.ontologyCache = new OntologyCache(!settings.no_local_owl_files);
+
+        List<Owl2Neo4J> imports = new ArrayList<>();
+        for (int i = 0; i < ontologies.length(); i++) {
+            JSONObject entry = ontologies.getJSONObject(i);
+            Owl2Neo4J ontImport = new Owl2Neo4J(settings);
+            ontImport.path_to_owl = new File(basePath, entry.getString("o")).getPath();
+            ontImport.ontology_name = entry.getString("n");
+            ontImport.ontology_acronym = entry.getString("a").toUpperCase();
+            if (entry.has("i")) {
+                ontImport.include_import_closure = entry.getBoolean("i");
+            } else {
+                ontImport.include_import_closure = false;
+            }
+            if (parallelism > 1) {
+                // Parallel imports share the processors
+                ontImport.extraction_threads = Math.max(1, settings.extraction_threads / parallelism);
+                ontImport.concurrent = true;
+            }
+            imports.add(ontImport);
+        }
+
+        if (parallelism == 1) {
+            for (Owl2Neo4J ontImport: imports) {
+                ontImport.importOntologies();
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, imports.size()));
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (final Owl2Neo4J ontImport: imports) {
+                results.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        ontImport.importOntologies();
+                    }
+                }));
+            }
+            for (Future<?> result: results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Whether the graph is written to files, or nowhere at all, instead of a
+     * Neo4J server.
+     */
+    public boolean isExporting() {
+        return this.dry_run || StringUtils.isNotBlank(this.export_csv_dir) || StringUtils.isNotBlank(this.export_cypher_file);
+    }
+
+    /**
+     * Whether Neo4J is talked to via Bolt instead of HTTP.
+     */
+    public boolean isBolt() {
+        return StringUtils.startsWith(this.server_root_url, "bolt://");
+    }
+
     public void checkServer() {
         if (StringUtils.isBlank(this.server_root_url)) {
             this.server_root_url = "http://localhost:7474";
         }
 
-        Unirest.setDefaultHeader("Content-type", "application/json");
-        Unirest.setDefaultHeader("Accept", "application/json; charset=UTF-8");
-        // Yields better performance and reduces memory load on the Neo4J server
-        // http://neo4j.com/docs/stable/rest-api-streaming.html
-        Unirest.setDefaultHeader("X-Stream", "true");
-        Unirest.setDefaultHeader(
-            "Authorization", this.neo4j_authentication_header
+        if (this.isBolt()) {
+            this.checkBoltServer();
+        } else {
+            this.checkHttpServer();
+        }
+
+        if (!this.skip_schema) {
+            this.checkSchema();
+        }
+    }
+
+    private void checkHttpServer() {
+        Neo4jClient.configure(
+            this.neo4j_authentication_header,
+            this.http_connections,
+            this.connect_timeout,
+            this.http_timeout,
+            this.http_gzip,
+            this.verbose_output
         );
 
         // Test if server is available
@@ -292,9 +557,7 @@ public class Owl2Neo4J {
                 System.out.print("Checking Neo4J at " + this.server_root_url + "... ");
             }
 
-            Unirest.get(
-                this.server_root_url
-            ).asJson();
+            Neo4jClient.get().getStatus(this.server_root_url);
 
             if (this.verbose_output) {
                 System.out.println(ANSI_RESET + "Checking Neo4J at " + this.server_root_url + "... " + ANSI_GREEN + "\u2713" + ANSI_RESET);
@@ -315,9 +578,9 @@ public class Owl2Neo4J {
                 System.out.print("Checking credentials for Neo4J... ");
             }
 
-            Unirest.get(
-                this.server_root_url + REST_ENDPOINT
-            ).asJson();
+            if (Neo4jClient.get().getStatus(this.server_root_url + REST_ENDPOINT) == 401) {
+                throw new Exception("Neo4J rejected the username or password");
+            }
 
             if (this.verbose_output) {
                 System.out.println(ANSI_RESET + "Checking credentials for Neo4J... " + ANSI_GREEN + "\u2713" + ANSI_RESET);
@@ -331,27 +594,142 @@ public class Owl2Neo4J {
         }
     }
 
+    /**
+     * Connects the Bolt driver and checks the credentials with a trivial
+     * query.
+     */
+    private void checkBoltServer() {
+        if (this.writers > 1) {
+            print_error("`--writers` is only supported for HTTP. Bolt writes within one transaction.");
+            System.exit(1);
+        }
+
+        AuthToken authToken = AuthTokens.none();
+        if (StringUtils.isNotBlank(this.neo4j_user)) {
+            authToken = AuthTokens.basic(this.neo4j_user, this.neo4j_password);
+        }
+
+        try {
+            if (this.verbose_output) {
+                System.out.println("Checking Neo4J at " + this.server_root_url + "... " + ANSI_DIM);
+            } else {
+                System.out.print("Checking Neo4J at " + this.server_root_url + "... ");
+            }
+
+            BoltSink.connect(this.server_root_url, authToken);
+            try (Session session = BoltSink.getDriver().session()) {
+                session.run("RETURN 1;").consume();
+            }
+
+            if (this.verbose_output) {
+                System.out.println(ANSI_RESET + "Checking Neo4J at " + this.server_root_url + "... " + ANSI_GREEN + "\u2713" + ANSI_RESET);
+            } else {
+                System.out.println(ANSI_GREEN + "\u2713" + ANSI_RESET);
+            }
+        } catch (Exception e) {
+            print_error("Error connecting to Neo4J via Bolt");
+            print_error(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates the indexes and constraints every import relies on unless they
+     * exist and waits until they are online.
+     */
+    private void checkSchema() {
+        try {
+            if (this.verbose_output) {
+                System.out.println("Checking indexes and constraints... " + ANSI_DIM);
+            } else {
+                System.out.print("Checking indexes and constraints... ");
+            }
+
+            SchemaBootstrap schema = new SchemaBootstrap(this.createSchemaCypher(), this.verbose_output);
+            schema.ensure(SchemaBootstrap.getRequiredIndexes(CLASS_NODE_LABEL, ONTOLOGY_NODE_LABEL));
+
+            if (this.verbose_output) {
+                System.out.println(
+                    ANSI_RESET + "Checking indexes and constraints... " + ANSI_GREEN + "\u2713" + ANSI_RESET +
+                    ANSI_DIM + "  (" + schema.getNumCreated() + " created)" + ANSI_RESET_DIM
+                );
+            } else {
+                System.out.println(ANSI_GREEN + "\u2713" + ANSI_RESET);
+            }
+        } catch (Exception e) {
+            print_error("Error setting up indexes and constraints");
+            print_error(e.getMessage());
+            print_error("Create them manually with cypher/constraints.cql and use --skip-schema.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs schema statements via Bolt or HTTP, each in a transaction of its
+     * own, as Neo4J doesn't allow schema changes and writes in the same
+     * transaction.
+     */
+    private SchemaBootstrap.Cypher createSchemaCypher() {
+        if (this.isBolt()) {
+            return new SchemaBootstrap.Cypher() {
+                @Override
+                public List<List<String>> run(String cql) {
+                    List<List<String>> rows = new ArrayList<>();
+                    try (Session session = BoltSink.getDriver().session()) {
+                        for (Record record: session.run(cql).list()) {
+                            List<String> row = new ArrayList<>();
+                            for (Value value: record.values()) {
+                                row.add(value.isNull() ? null : value.asObject().toString());
+                            }
+                            rows.add(row);
+                        }
+                    }
+                    return rows;
+                }
+            };
+        }
+        final String url = this.server_root_url + TRANSACTION_ENDPOINT + "/commit";
+        return new SchemaBootstrap.Cypher() {
+            @Override
+            public List<List<String>> run(String cql) throws Exception {
+                JsonObject statement = Json.createObjectBuilder().add("statement", cql).build();
+                Neo4jClient.Response response = Neo4jClient.get().post(
+                    url,
+                    "{\"statements\":[" + statement.toString() + "]}"
+                );
+                checkForError(response);
+                return response.rows;
+            }
+        };
+    }
+
     public void importOntologies() {
         long loadTimeSec;
         long loadTimeMin;
 
+        this.metrics = new ImportMetrics(this.ontology_acronym);
+        MetricsReport.get().add(this.metrics);
+
         try {
             if (this.verbose_output) {
                 System.out.println("Loading " + this.ontology_acronym + "... " + ANSI_DIM);
-            } else {
+            } else if (!this.concurrent) {
                 System.out.print("Loading " + this.ontology_acronym + "... ");
             }
 
             long start = System.nanoTime();
             this.loadOntology();
             long end = System.nanoTime();
+            this.metrics.addPhase("parse", end - start);
             loadTimeMin = TimeUnit.NANOSECONDS.toMinutes(end - start);
             loadTimeSec = TimeUnit.NANOSECONDS.toSeconds(end - start) - (60 * loadTimeMin);
 
             if (this.verbose_output) {
                 System.out.println(ANSI_RESET + "Loading " + this.ontology_acronym + "... " + ANSI_GREEN + "\u2713" + ANSI_RESET);
             } else {
+                // Lines of concurrent imports must not be interleaved
                 System.out.println(
+                    (this.concurrent ? "Loading " + this.ontology_acronym + "... " : "") +
                     ANSI_GREEN + "\u2713 " + ANSI_RESET +
                         ANSI_DIM + "  ("  + loadTimeMin + " min and " + loadTimeSec + " sec)" + ANSI_RESET_DIM
                 );
@@ -367,7 +745,7 @@ public class Owl2Neo4J {
         try {
             if (this.verbose_output) {
                 System.out.println("Importing " + this.ontology_acronym + "... " + ANSI_DIM);
-            } else {
+            } else if (!this.concurrent) {
                 System.out.print("Importing " + this.ontology_acronym + "... ");
             }
 
@@ -381,6 +759,7 @@ public class Owl2Neo4J {
                 System.out.println(ANSI_RESET + "Importing " + this.ontology_acronym + "... " + ANSI_GREEN + "\u2713" + ANSI_RESET);
             } else {
                 System.out.println(
+                    (this.concurrent ? "Importing " + this.ontology_acronym + "... " : "") +
                     ANSI_GREEN + "\u2713" + ANSI_RESET +
                         ANSI_DIM + "  (" + importTimeMin + " min and " + importTimeSec + " sec)" + ANSI_RESET_DIM
                 );
@@ -393,23 +772,39 @@ public class Owl2Neo4J {
     }
 
     public void loadOntology() throws Exception {
-        this.manager = OWLManager.createOWLOntologyManager();
-
         Path ontFilePath = Paths.get(this.path_to_owl);
         if (Files.notExists(ontFilePath)) {
             throw new Exception("The option `-o` doesn't point to a file.");
         }
 
-        if (!this.no_local_owl_files) {
-            this.manager.addIRIMapper(
-                new AutoIRIMapper(
-                    ontFilePath.getParent().toAbsolutePath().normalize().toFile(), true
-                )
-            );
+        if (this.prefer_compact) {
+            ontFilePath = getCompactSibling(ontFilePath);
+        }
+
+        // Only a batch shares its cache. Otherwise parsed imports aren't needed
+        // once the ontology has been loaded and aren't remembered.
+        boolean sharedCache = this.ontologyCache != null;
+        if (!sharedCache) {
+            this.ontologyCache = new OntologyCache(!this.no_local_owl_files);
+        }
+        File directory = ontFilePath.toAbsolutePath().getParent().normalize().toFile();
+        this.manager = this.ontologyCache.createManager(directory);
+
+        if (sharedCache && this.extraction_threads > 1) {
+            // Parse the imports in parallel first
+            int numImports = this.ontologyCache.prefetchImports(ontFilePath, directory, this.extraction_threads);
+            if (this.verbose_output && numImports > 0) {
+                System.out.println("Parsed " + numImports + " imports with up to " + this.extraction_threads + " threads");
+            }
         }
 
-        this.documentIRI = IRI.create("file:" + this.path_to_owl);
-        this.ontology = this.manager.loadOntologyFromOntologyDocument(documentIRI);
+        this.documentIRI = IRI.create("file:" + ontFilePath.toString());
+        this.ontology = this.manager.loadOntologyFromOntologyDocument(
+            new LocalDocumentSource(ontFilePath, this.documentIRI)
+        );
+        if (sharedCache) {
+            this.ontologyCache.rememberImports(this.manager, this.ontology);
+        }
 
         this.dataFactory = OWLManager.getOWLDataFactory();
 
@@ -426,27 +821,40 @@ public class Owl2Neo4J {
         }
 
         if (this.verbose_output) {
+            System.out.println(this.ontologyCache.getStats());
             System.out.println("Document IRI: " + documentIRI);
             System.out.println("Ontology IRI: " + this.ontUri);
             System.out.println("Version  IRI: " + this.versionIri);
         }
     }
 
-    private void importOntology() throws Exception
-    {
-        OWLReasonerFactory reasonerFactory = new Reasoner.ReasonerFactory();
-        OWLReasonerConfiguration config;
-        if (this.verbose_output) {
-            ConsoleProgressMonitor progressMonitor = new ConsoleProgressMonitor();
-            config = new SimpleConfiguration(
-                progressMonitor
-            );
-        } else {
-            config = new SimpleConfiguration();
+    /**
+     * Looks for the same ontology in a more compact format next to the given
+     * file, e.g. `go.ofn` or `go.obo` for `go.owl`. These parse a lot faster
+     * than RDF/XML. Siblings that are older than the file are ignored.
+     */
+    private Path getCompactSibling (Path ontFilePath) throws IOException {
+        String name = ontFilePath.getFileName().toString();
+        String baseName = name.replaceFirst("\\.(gz|bz2)$", "");
+        baseName = FilenameUtils.removeExtension(baseName);
+        for (String extension: COMPACT_FORMAT_EXTENSIONS) {
+            Path sibling = ontFilePath.resolveSibling(baseName + extension);
+            if (
+                !sibling.getFileName().toString().equals(name) &&
+                Files.exists(sibling) &&
+                Files.getLastModifiedTime(sibling).compareTo(Files.getLastModifiedTime(ontFilePath)) >= 0
+            ) {
+                if (this.verbose_output) {
+                    System.out.println("Loading " + sibling + " instead of " + ontFilePath);
+                }
+                return sibling;
+            }
         }
-        OWLReasoner reasoner = reasonerFactory.createReasoner(this.ontology, config);
-        reasoner.precomputeInferences();
+        return ontFilePath;
+    }
 
+    private void importOntology() throws Exception
+    {
         // Init Cypher logger
         this.cqlLogger = Logger.getLogger("Cypher:" + this.ontology_acronym);
         if (this.verbose_output) {
@@ -464,38 +872,40 @@ public class Owl2Neo4J {
         // This part was inspired by:
         // http://neo4j.com/blog/and-now-for-something-completely-different-using-owl-with-neo4j/
         try {
-            initTransaction();
+            this.target = this.createSink();
+            MeteredSink meteredSink = new MeteredSink(this.target);
+            this.sink = meteredSink;
+            this.metrics.setSink(meteredSink);
+            this.uriCache = new UriCache();
+            this.metrics.setUriCache(this.uriCache);
+
+            if (this.acronym_index && !this.skip_schema && !this.isExporting()) {
+                // Lets queries on the ontology's label look up classes by URI
+                SchemaBootstrap schema = new SchemaBootstrap(this.createSchemaCypher(), this.verbose_output);
+                schema.ensure(Collections.singletonList(
+                    new SchemaBootstrap.Index(this.ontology_acronym, "uri", false)
+                ));
+            }
 
-            // Create a node for the ontology
-            createNode(
-                ONTOLOGY_NODE_LABEL,
-                this.ontology_name,
-                this.ontUri
-            );
+            OntologySnapshot previousSnapshot = null;
+            if (StringUtils.isNotBlank(this.incremental_dir)) {
+                previousSnapshot = this.readPreviousSnapshot();
+            }
 
-            setProperty(
-                ONTOLOGY_NODE_LABEL,
-                this.ontUri,
-                "acronym",
-                this.ontology_acronym
-            );
+            // Create a node for the ontology
+            Map<String, String> ontologyProperties = new LinkedHashMap<>();
+            ontologyProperties.put("name", this.ontology_name);
+            ontologyProperties.put("acronym", this.ontology_acronym);
+            if (this.versionIri != null) {
+                ontologyProperties.put("version", this.versionIri);
+            }
 
-            setProperty(
+            this.sink.upsertNode(
                 ONTOLOGY_NODE_LABEL,
                 this.ontUri,
-                "uri",
-                this.ontUri
+                ontologyProperties
             );
 
-            if (this.versionIri != null) {
-                setProperty(
-                    ONTOLOGY_NODE_LABEL,
-                    this.ontUri,
-                    "version",
-                    this.versionIri
-                );
-            }
-
             // Create root node "owl:Thing"
             createNode(
                 CLASS_NODE_LABEL,
@@ -503,205 +913,604 @@ public class Owl2Neo4J {
                 ROOT_CLASS_URI
             );
 
+            this.twoPhaseWriter = null;
+            this.classGraph = null;
+            this.snapshot = null;
+            if (StringUtils.isNotBlank(this.incremental_dir)) {
+                this.snapshot = new OntologySnapshot(this.versionIri);
+            } else if (this.compact_graph) {
+                this.classGraph = new ClassGraph();
+            } else if (this.two_phase) {
+                this.twoPhaseWriter = new TwoPhaseWriter(this.sink, CLASS_NODE_LABEL, this.uriCache);
+            }
+
             if (!this.eqps.isEmpty()) {
                 for (String property: this.eqps) {
                     this.eqp.add(this.dataFactory.getOWLObjectProperty(IRI.create(property)));
                 }
             }
 
-            boolean firstTime = true;
-            ExecutorService aliveKeeper = null;
-
-            for (OWLClass c: this.ontology.getClassesInSignature(this.include_import_closure)) {
-                // Skip unsatisfiable classes like `owl:Nothing`.
-                if (!reasoner.isSatisfiable(c)) {
-                    continue;
-                }
-
-                String classString = c.toString();
-                String classUri = this.extractUri(classString);
-                String classOntID = this.getOntID(classUri);
-
-                String superClassString;
-                String superClassUri;
-                String superClassOntID;
+            // Classifying might take a while. The open transaction is kept
+            // alive by the `TransactionHeartbeat` in the meantime.
+            long classifyStart = System.nanoTime();
+            ClassHierarchy hierarchy = this.classify();
+            this.metrics.addPhase("classify", System.nanoTime() - classifyStart);
 
-                createNode(CLASS_NODE_LABEL, classOntID, classUri);
+            long extractStart = System.nanoTime();
+            long writeNanos = meteredSink.getNanos();
+            try {
+                this.extractClasses(hierarchy);
+            } finally {
+                // Frees the reasoner's memory before the rest is written
+                hierarchy.dispose();
+            }
+            // Writing is measured on its own
+            this.metrics.addPhase(
+                "extract",
+                System.nanoTime() - extractStart - (meteredSink.getNanos() - writeNanos)
+            );
 
-                this.storeLabel(c, classUri);
+            if (this.snapshot != null) {
+                this.writeSnapshotChanges(previousSnapshot);
+            }
 
-                if (firstTime) {
-                    aliveKeeper = keepTransactionAlive(
-                        this.server_root_url + TRANSACTION_ENDPOINT + this.transaction,
-                        150,
-                        this.verbose_output
+            if (this.classGraph != null) {
+                if (this.verbose_output) {
+                    System.out.println(
+                        "Class graph: " + this.classGraph.getNumNodes() + " nodes, " +
+                        this.classGraph.getNumEdges() + " relationships, ~" +
+                        (this.classGraph.getSize() / 1048576) + " MB"
                     );
                 }
+                this.classGraph.writeTo(this.sink, CLASS_NODE_LABEL);
+                this.classGraph = null;
+            }
 
-                // A node set is a set of nodes.
-                NodeSet<OWLClass> superClassNodeSet = reasoner.getSuperClasses(c, true);
-
-                if (firstTime && aliveKeeper != null) {
-                    try {
-                        closeTransactionAliveKeeper(aliveKeeper, this.verbose_output);
-                    } catch (Exception e) {
-                        print_error("Couldn't shut down alive keeper");
-                        print_error(e.getMessage());
-                        System.exit(1);
-                    }
-                    firstTime = false;
-                }
-
-                if (superClassNodeSet.isEmpty()) {
-                    // When the set of superclasses is empty we relate the current Node to OWL:Thing.
-                    // This avoids subtrees with a root node other than OWL:Thing.
-                    createRelationship(
-                        CLASS_NODE_LABEL,
-                        classUri,
-                        CLASS_NODE_LABEL,
-                        ROOT_CLASS_URI,
-                        "RDFS:subClassOf"
+            if (this.twoPhaseWriter != null) {
+                if (this.verbose_output) {
+                    System.out.println(
+                        "Wrote " + this.twoPhaseWriter.getNumNodes() + " classes. Writing relationships..."
                     );
-                } else {
-                    // A node is a set of equivalent OWLClasses.
-                    // http://owlapi.sourceforge.net/javadoc/org/semanticweb/owlapi/reasoner/Node.html
-                    for (Node<OWLClass> superClassNode: superClassNodeSet) {
-                        if (superClassNode.isTopNode()) {
-                            // The top node represents owl:Thing and OWL classes equivalent to it.
-                            createRelationship(
-                                CLASS_NODE_LABEL,
-                                classUri,
-                                CLASS_NODE_LABEL,
-                                ROOT_CLASS_URI,
-                                "RDFS:subClassOf"
-                            );
-                        } else {
-                            // We iterate over all superclasses except unsatisfiable classes, e.g. owl:Nothing and other
-                            // classes equivalent to it.
-                            for (OWLClass superClass: superClassNode.getEntitiesMinusBottom()) {
-                                superClassString = superClass.toString();
-                                superClassUri = this.extractUri(superClassString);
-                                superClassOntID = this.getOntID(superClassUri);
-
-                                createNode(
-                                    CLASS_NODE_LABEL,
-                                    superClassOntID,
-                                    superClassUri
-                                );
-
-                                createRelationship(
-                                    CLASS_NODE_LABEL,
-                                    classUri,
-                                    CLASS_NODE_LABEL,
-                                    superClassUri,
-                                    "RDFS:subClassOf"
-                                );
-                            }
-                        }
-                    }
                 }
+                this.twoPhaseWriter.finish();
+            }
 
-                if (!this.eqp.isEmpty()) {
-                    // Create a visitor for extracting existential restrictions they can be seen as some sort of class
-                    // property.
-                    // http://www.w3.org/TR/2004/REC-owl-guide-20040210/#PropertyRestrictions
-                    RestrictionVisitor restrictionVisitor = new RestrictionVisitor();
-
-                    // Get all subclass axioms for the current class
-                    for (OWLSubClassOfAxiom axiom: this.ontology.getSubClassAxiomsForSubClass(c)) {
-                        // Get all superclasses based on the axiom, which includes superclasses based on existential
-                        // restrictions.
-                        OWLClassExpression superClass = axiom.getSuperClass();
-                        // Ask our superclass to accept a visit from the RestrictionVisitor
-                        superClass.accept(restrictionVisitor);
-                    }
+            this.sink.commit();
+            this.sink.close();
 
-                    for (Tuple restriction: restrictionVisitor.getRestrictions()) {
-                        if (this.eqp.contains(restriction.x)) {
-                            superClassString = restriction.y.toString();
-                            superClassUri = this.extractUri(superClassString);
-                            superClassOntID = this.getOntID(superClassUri);
-
-                            createNode(
-                                CLASS_NODE_LABEL,
-                                superClassOntID,
-                                superClassUri
-                            );
-
-                            createRelationship(
-                                CLASS_NODE_LABEL,
-                                classUri,
-                                CLASS_NODE_LABEL,
-                                superClassUri,
-                                this.getOntID(this.extractUri(restriction.x.toString()))
-                            );
-                        }
-                    }
-                }
+            if (this.checkpoint != null) {
+                // Nothing left to resume
+                this.checkpoint.finish();
+                this.checkpoint = null;
+            }
 
-                Set<OWLClass> equivalentClasses = getEquivalentClasses(reasoner, c);
-
-                for (OWLClass ec : equivalentClasses) {
-                    String ecString = ec.toString();
-                    String ecUri = this.extractUri(ecString);
-                    String ecOntID = this.getOntID(ecUri);
-
-                    if (!ecUri.equals(classUri)) {
-                        createNode(
-                            CLASS_NODE_LABEL,
-                            ecOntID,
-                            ecUri
-                        );
-
-                        createRelationship(
-                            CLASS_NODE_LABEL,
-                            ecUri,
-                            CLASS_NODE_LABEL,
-                            classUri,
-                            "OWL:equivalentClass"
-                        );
-                    }
-                }
+            if (this.verbose_output) {
+                System.out.println(this.uriCache.getStats());
+                System.out.println(this.metrics.getStats());
             }
-            commitTransaction();
         } catch (Exception e) {
             print_error(e.getMessage());
             System.exit(1);
         }
     }
 
-    public String extractUri (String classString) {
-        String classUri = classString;
-        int openingAngleBracketPos = classString.indexOf("<");
-        int closingAngleBracketPos = classString.lastIndexOf(">");
-        try {
-            if (openingAngleBracketPos >= 0 && closingAngleBracketPos >= 0) {
-                classUri = classString.substring(
-                    classString.indexOf("<") + 1,
-                    classString.lastIndexOf(">")
+    /**
+     * Reads the snapshot of the last import of the ontology.
+     *
+     * The snapshot is only trusted if the ontology node still exists in Neo4J
+     * and carries the version IRI the snapshot was taken from. Otherwise, e.g.
+     * when the database has been reset in the meantime, an empty snapshot is
+     * returned and everything is written as if it was the first import. This
+     * has to happen before the ontology node is updated.
+     */
+    private OntologySnapshot readPreviousSnapshot () throws IOException {
+        File snapshotFile = this.getSnapshotFile();
+        OntologySnapshot previous = null;
+        if (snapshotFile.exists()) {
+            try {
+                previous = OntologySnapshot.read(snapshotFile);
+            } catch (IOException e) {
+                print_error("Couldn't read snapshot of the last import. Importing everything.");
+                print_error(e.getMessage());
+            }
+        }
+
+        if (previous != null && (this.target instanceof HttpSink || this.target instanceof BoltSink)) {
+            Tuple<Integer, String> imported;
+            if (this.target instanceof BoltSink) {
+                imported = ((BoltSink) this.target).readProperty(ONTOLOGY_NODE_LABEL, this.ontUri, "version");
+            } else {
+                imported = ((HttpSink) this.target).readProperty(ONTOLOGY_NODE_LABEL, this.ontUri, "version");
+            }
+            String importedVersion = imported.y;
+            if (imported.x == 0) {
+                print_error("Ontology isn't in Neo4J anymore. Importing everything.");
+                previous = null;
+            } else if (!Objects.equals(importedVersion, previous.getVersion())) {
+                print_error(
+                    "Version in Neo4J (" + importedVersion + ") doesn't match the snapshot (" +
+                    previous.getVersion() + "). Importing everything."
                 );
+                previous = null;
             }
-        } catch (Exception e) {
-            print_error("Couldn't extract URI of '" + classString + "'");
-            print_error(e.getMessage());
-            System.exit(1);
         }
-        return classUri;
+
+        if (previous == null) {
+            return new OntologySnapshot(null);
+        }
+        if (this.verbose_output) {
+            System.out.println("Comparing with snapshot of " + previous.size() + " nodes from " + snapshotFile);
+        }
+        return previous;
     }
 
-    public String getOntID (String classUri) {
-        String idSpace = "";
-        String classOntID = classUri;
-        // First extract the substring after the last slash to avoid possible
-        // conflicts
-        if (classOntID.contains("/")) {
-            int lastSlash = classOntID.lastIndexOf("/");
-            if (lastSlash >= 0) {
-                String tmp = classOntID.substring(lastSlash);
-                if (tmp.length() == 1) {
-                    tmp = classOntID.substring(0, lastSlash);
-                    lastSlash = tmp.lastIndexOf("/");
-                    if (lastSlash >= 0) {
+    /**
+     * Writes the changes since the previous snapshot and replaces the stored
+     * snapshot once they are committed.
+     */
+    private void writeSnapshotChanges (OntologySnapshot previous) throws IOException {
+        this.snapshot.writeChanges(previous, this.sink, CLASS_NODE_LABEL);
+        this.sink.commit();
+
+        // Dry runs and scripts don't change the database.
+        if (!this.dry_run && StringUtils.isBlank(this.export_cypher_file)) {
+            new File(this.incremental_dir).mkdirs();
+            this.snapshot.write(this.getSnapshotFile());
+        }
+
+        if (this.verbose_output) {
+            System.out.println("Incremental import: " + this.snapshot.getChangeStats());
+        }
+        this.snapshot = null;
+    }
+
+    private File getSnapshotFile () {
+        return new File(this.incremental_dir, this.ontology_acronym + ".snapshot.gz");
+    }
+
+    /**
+     * Classifies the ontology with the selected reasoner.
+     *
+     * Reasoners aren't thread-safe, so their answers are collected into a
+     * `CachedHierarchy` by the current thread, which the extraction threads
+     * then share. The reasoner is disposed right away.
+     *
+     * With `--cache-dir` the class hierarchy is also written to a file named
+     * after `getCacheKey()`. As long as the ontology, its imports and the
+     * reasoner stay the same, later imports read the file instead of
+     * classifying.
+     */
+    private ClassHierarchy classify () throws Exception {
+        File cacheFile = null;
+        if (StringUtils.isNotBlank(this.cache_dir)) {
+            cacheFile = new File(this.cache_dir, this.getCacheKey() + ".hierarchy.gz");
+            if (cacheFile.exists()) {
+                try {
+                    CachedHierarchy cached = CachedHierarchy.read(cacheFile, this.dataFactory);
+                    if (this.verbose_output) {
+                        System.out.println("Read cached class hierarchy from " + cacheFile);
+                    }
+                    return cached;
+                } catch (IOException e) {
+                    print_error("Couldn't read cached class hierarchy. Classifying again.");
+                    print_error(e.getMessage());
+                }
+            }
+        }
+
+        OWLReasonerFactory reasonerFactory = this.createReasonerFactory();
+        OWLReasonerConfiguration config;
+        if (this.verbose_output) {
+            ConsoleProgressMonitor progressMonitor = new ConsoleProgressMonitor();
+            config = new SimpleConfiguration(
+                progressMonitor
+            );
+        } else {
+            config = new SimpleConfiguration();
+        }
+        OWLReasoner reasoner = reasonerFactory.createReasoner(this.ontology, config);
+
+        // HermiT only classifies when it's asked for the first time, which
+        // would otherwise happen while extracting the first class.
+        reasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+
+        ClassHierarchy hierarchy = new ReasonerHierarchy(reasoner, this.dataFactory);
+
+        CachedHierarchy cached = CachedHierarchy.build(
+            hierarchy,
+            this.ontology.getClassesInSignature(this.include_import_closure)
+        );
+        hierarchy.dispose();
+
+        if (cacheFile == null) {
+            return cached;
+        }
+
+        try {
+            cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+            cached.write(cacheFile);
+            if (this.verbose_output) {
+                System.out.println("Cached class hierarchy of " + cached.size() + " classes in " + cacheFile);
+            }
+        } catch (IOException e) {
+            print_error("Couldn't cache class hierarchy");
+            print_error(e.getMessage());
+        }
+        return cached;
+    }
+
+    /**
+     * SHA-256 over everything the class hierarchy depends on: the cache
+     * format, the reasoner, whether imported classes are included and the
+     * documents of the ontology and all of its imports.
+     */
+    private String getCacheKey () throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((
+            "format:" + CachedHierarchy.FORMAT_VERSION +
+            "\nreasoner:" + this.reasoner_name +
+            "\nimports:" + this.include_import_closure + "\n"
+        ).getBytes(StandardCharsets.UTF_8));
+
+        // Sort the documents so that the order in which imports were loaded
+        // doesn't matter.
+        Map<String, OWLOntology> documents = new TreeMap<>();
+        for (OWLOntology ont: this.ontology.getImportsClosure()) {
+            documents.put(this.manager.getOntologyDocumentIRI(ont).toString(), ont);
+        }
+
+        byte[] buffer = new byte[65536];
+        for (Map.Entry<String, OWLOntology> document: documents.entrySet()) {
+            IRI documentIRI = IRI.create(document.getKey());
+            digest.update(document.getKey().getBytes(StandardCharsets.UTF_8));
+            if ("file".equals(documentIRI.getScheme())) {
+                File file = new File(documentIRI.toURI().getSchemeSpecificPart());
+                try (InputStream in = new FileInputStream(file)) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            } else {
+                // Remote documents aren't downloaded again. Their axioms are
+                // hashed instead.
+                List<String> axioms = new ArrayList<>();
+                for (OWLAxiom axiom: document.getValue().getAxioms()) {
+                    axioms.add(axiom.toString());
+                }
+                Collections.sort(axioms);
+                for (String axiom: axioms) {
+                    digest.update(axiom.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Extracts all classes of the ontology and writes them to the sink.
+     *
+     * Classes are extracted by a pool of threads, each of them claiming chunks
+     * of classes. The extracted records are handed over through a bounded
+     * queue and written by the current thread as sinks aren't thread-safe.
+     * Reasoners aren't thread-safe either, so classes are only extracted in
+     * parallel from a `CachedHierarchy`, see `classify()`.
+     */
+    private void extractClasses (final ClassHierarchy hierarchy) throws Exception {
+        final List<OWLClass> classes = new ArrayList<>(
+            this.ontology.getClassesInSignature(this.include_import_closure)
+        );
+        this.indexOntology();
+
+        this.checkpoint = null;
+        if (StringUtils.isNotBlank(this.checkpoint_dir)) {
+            this.openCheckpoint(classes);
+        }
+        final ImportCheckpoint checkpoint = this.checkpoint;
+
+        int numThreads = Math.max(1, Math.min(this.extraction_threads, classes.size()));
+        if (!hierarchy.isThreadSafe()) {
+            numThreads = 1;
+        }
+
+        if (numThreads == 1) {
+            for (int i = 0; i < classes.size(); i++) {
+                if (checkpoint != null && checkpoint.isCommitted(i)) {
+                    continue;
+                }
+                ClassRecord record = this.extractClass(hierarchy, classes.get(i));
+                if (record != null) {
+                    record.index = i;
+                    this.writeClassRecord(record);
+                    this.sink.checkpoint();
+                }
+            }
+            return;
+        }
+
+        if (this.verbose_output) {
+            System.out.println("Extracting " + classes.size() + " classes with " + numThreads + " threads");
+        }
+
+        final BlockingQueue<ClassRecord> queue = new ArrayBlockingQueue<>(EXTRACTION_QUEUE_SIZE);
+        final AtomicInteger nextChunk = new AtomicInteger(0);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // Every extractor puts this marker into the queue when it's done.
+        final ClassRecord done = new ClassRecord(null, null);
+
+        ExecutorService extractors = Executors.newFixedThreadPool(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            extractors.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int start;
+                        while (failure.get() == null &&
+                            (start = nextChunk.getAndAdd(EXTRACTION_CHUNK_SIZE)) < classes.size()) {
+                            int end = Math.min(start + EXTRACTION_CHUNK_SIZE, classes.size());
+                            for (int j = start; j < end; j++) {
+                                if (checkpoint != null && checkpoint.isCommitted(j)) {
+                                    continue;
+                                }
+                                ClassRecord record = extractClass(hierarchy, classes.get(j));
+                                if (record != null) {
+                                    record.index = j;
+                                    queue.put(record);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                        if (e instanceof InterruptedException) {
+                            Thread.currentThread().interrupt();
+                        }
+                    } finally {
+                        try {
+                            queue.put(done);
+                        } catch (InterruptedException e) {
+                            // The writer is gone, so nobody is waiting for us.
+                        }
+                    }
+                }
+            });
+        }
+        extractors.shutdown();
+
+        try {
+            int running = numThreads;
+            while (running > 0) {
+                ClassRecord record = queue.take();
+                if (record == done) {
+                    running--;
+                } else if (failure.get() == null) {
+                    this.writeClassRecord(record);
+                    this.sink.checkpoint();
+                }
+            }
+        } finally {
+            extractors.shutdownNow();
+        }
+
+        if (failure.get() != null) {
+            throw new Exception("Error extracting classes: " + failure.get().getMessage());
+        }
+    }
+
+    /**
+     * Extracts the node, referenced nodes and relationships of a single class.
+     * Only reads from the class hierarchy and the lookups built by
+     * `indexOntology()`, so it can be called from several threads if the
+     * hierarchy is thread-safe.
+     *
+     * @return `null` if the class is unsatisfiable.
+     */
+    private ClassRecord extractClass (ClassHierarchy hierarchy, OWLClass c) {
+        // Skip unsatisfiable classes like `owl:Nothing`.
+        if (!hierarchy.isSatisfiable(c)) {
+            return null;
+        }
+
+        String classString = c.toString();
+        String classUri = this.extractUri(classString);
+        String classOntID = this.getOntID(classUri);
+
+        String superClassString;
+        String superClassUri;
+
+        ClassRecord record = new ClassRecord(classUri, this.getClassProperties(c, classOntID));
+
+        Set<OWLClass> superClasses = hierarchy.getSuperClasses(c);
+
+        if (superClasses.isEmpty()) {
+            // When the set of superclasses is empty we relate the current Node to OWL:Thing.
+            // This avoids subtrees with a root node other than OWL:Thing.
+            record.addEdge(classUri, ROOT_CLASS_URI, "RDFS:subClassOf");
+        } else {
+            for (OWLClass superClass: superClasses) {
+                if (superClass.isOWLThing()) {
+                    record.addEdge(classUri, ROOT_CLASS_URI, "RDFS:subClassOf");
+                } else {
+                    superClassString = superClass.toString();
+                    superClassUri = this.extractUri(superClassString);
+
+                    record.addReference(superClassUri, this.getOntID(superClassUri));
+                    record.addEdge(classUri, superClassUri, "RDFS:subClassOf");
+                }
+            }
+        }
+
+        if (!this.eqp.isEmpty()) {
+            // Create a visitor for extracting existential restrictions they can be seen as some sort of class
+            // property.
+            // http://www.w3.org/TR/2004/REC-owl-guide-20040210/#PropertyRestrictions
+            RestrictionVisitor restrictionVisitor = new RestrictionVisitor();
+
+            // Get all superclasses of the current class's subclass axioms, which includes superclasses based on
+            // existential restrictions.
+            List<OWLClassExpression> superClassExpressions = this.assertedSuperClasses.get(c);
+            if (superClassExpressions != null) {
+                for (OWLClassExpression superClass: superClassExpressions) {
+                    // Ask our superclass to accept a visit from the RestrictionVisitor
+                    superClass.accept(restrictionVisitor);
+                }
+            }
+
+            for (Tuple restriction: restrictionVisitor.getRestrictions()) {
+                if (this.eqp.contains(restriction.x)) {
+                    superClassString = restriction.y.toString();
+                    superClassUri = this.extractUri(superClassString);
+
+                    record.addReference(superClassUri, this.getOntID(superClassUri));
+                    record.addEdge(
+                        classUri,
+                        superClassUri,
+                        this.getOntID(this.extractUri(restriction.x.toString()))
+                    );
+                }
+            }
+        }
+
+        Set<OWLClass> equivalentClasses = hierarchy.getEquivalentClasses(c);
+
+        for (OWLClass ec : equivalentClasses) {
+            String ecString = ec.toString();
+            String ecUri = this.extractUri(ecString);
+
+            if (!ecUri.equals(classUri)) {
+                record.addReference(ecUri, this.getOntID(ecUri));
+                record.addEdge(ecUri, classUri, "OWL:equivalentClass");
+            }
+        }
+
+        return record;
+    }
+
+    /**
+     * Writes an extracted class to the sink. Referenced nodes are written
+     * before any relationship so that both ends exist.
+     */
+    private void writeClassRecord (ClassRecord record) throws IOException {
+        this.metrics.classWritten();
+
+        if (this.snapshot != null) {
+            this.snapshot.add(record);
+            return;
+        }
+
+        if (this.classGraph != null) {
+            this.classGraph.add(record);
+            return;
+        }
+
+        if (this.twoPhaseWriter != null) {
+            this.twoPhaseWriter.add(record);
+            return;
+        }
+
+        // The class node is always written as it might have been written as
+        // a referenced node without its properties before.
+        this.sink.upsertNode(CLASS_NODE_LABEL, record.uri, record.properties);
+        this.uriCache.markEmitted(record.uri);
+
+        for (Tuple<String, String> reference: record.references) {
+            createNode(
+                CLASS_NODE_LABEL,
+                reference.y,
+                reference.x
+            );
+        }
+
+        for (ClassRecord.Edge edge: record.edges) {
+            this.sink.upsertEdge(
+                CLASS_NODE_LABEL,
+                edge.src,
+                CLASS_NODE_LABEL,
+                edge.dest,
+                edge.type
+            );
+        }
+
+        if (this.checkpoint != null) {
+            this.checkpoint.written(record.index);
+        }
+    }
+
+    /**
+     * Numbers the classes for the checkpoint of the import and hooks it up to
+     * the sink's commits. Classes are sorted by IRI, as their order in the
+     * ontology isn't the same across runs.
+     */
+    private void openCheckpoint (List<OWLClass> classes) throws IOException {
+        Collections.sort(classes);
+        List<String> classIris = new ArrayList<>(classes.size());
+        for (OWLClass c: classes) {
+            classIris.add(c.getIRI().toString());
+        }
+
+        new File(this.checkpoint_dir).mkdirs();
+        this.checkpoint = ImportCheckpoint.open(
+            new File(this.checkpoint_dir, this.ontology_acronym + ".checkpoint"),
+            classIris,
+            this.resume,
+            this.verbose_output
+        );
+
+        this.metrics.setNumResumed(this.checkpoint.getNumResumed());
+
+        if (this.target instanceof BoltSink) {
+            ((BoltSink) this.target).setCommitListener(this.checkpoint);
+        } else {
+            ((HttpSink) this.target).setCommitListener(this.checkpoint);
+        }
+    }
+
+    public String extractUri (String classString) {
+        String classUri = classString;
+        int openingAngleBracketPos = classString.indexOf("<");
+        int closingAngleBracketPos = classString.lastIndexOf(">");
+        try {
+            if (openingAngleBracketPos >= 0 && closingAngleBracketPos >= 0) {
+                classUri = classString.substring(
+                    classString.indexOf("<") + 1,
+                    classString.lastIndexOf(">")
+                );
+            }
+        } catch (Exception e) {
+            print_error("Couldn't extract URI of '" + classString + "'");
+            print_error(e.getMessage());
+            System.exit(1);
+        }
+        return classUri;
+    }
+
+    public String getOntID (String classUri) {
+        // The compact class graph shouldn't be accompanied by a map of all
+        // URIs.
+        if (this.uriCache == null || this.compact_graph) {
+            return this.computeOntID(classUri);
+        }
+        String classOntID = this.uriCache.getOntID(classUri);
+        if (classOntID == null) {
+            classOntID = this.computeOntID(classUri);
+            this.uriCache.putOntID(classUri, classOntID);
+        }
+        return classOntID;
+    }
+
+    private String computeOntID (String classUri) {
+        String idSpace = "";
+        String classOntID = classUri;
+        // First extract the substring after the last slash to avoid possible
+        // conflicts
+        if (classOntID.contains("/")) {
+            int lastSlash = classOntID.lastIndexOf("/");
+            if (lastSlash >= 0) {
+                String tmp = classOntID.substring(lastSlash);
+                if (tmp.length() == 1) {
+                    tmp = classOntID.substring(0, lastSlash);
+                    lastSlash = tmp.lastIndexOf("/");
+                    if (lastSlash >= 0) {
                         tmp = tmp.substring(lastSlash);
                     }
                 }
@@ -739,26 +1548,74 @@ public class Owl2Neo4J {
         return idSpace + classOntID;
     }
 
-    private Label getLabel (OWLClass c, OWLOntology ont) {
-        Label classLabel = new Label(null, null);
-        for (OWLAnnotation annotation : c.getAnnotations(ont, this.dataFactory.getRDFSLabel())) {
-            if (annotation.getValue() instanceof OWLLiteral) {
-                OWLLiteral val = (OWLLiteral) annotation.getValue();
+    /**
+     * Reads the labels and the asserted superclasses of all classes up front.
+     * The OWL API builds its indexes on first access and isn't thread-safe, so
+     * the extraction threads only look them up in the resulting maps.
+     */
+    private void indexOntology () {
+        this.ontologyLabels = this.getLabels(this.ontology);
+        this.importLabels = new ArrayList<>();
+        for (OWLOntology ont: this.ontology.getImports()) {
+            this.importLabels.add(this.getLabels(ont));
+        }
+
+        this.assertedSuperClasses = new HashMap<>();
+        if (this.eqp.isEmpty()) {
+            return;
+        }
+        for (OWLSubClassOfAxiom axiom: this.ontology.getAxioms(AxiomType.SUBCLASS_OF)) {
+            if (axiom.getSubClass().isAnonymous()) {
+                continue;
+            }
+            OWLClass c = axiom.getSubClass().asOWLClass();
+            List<OWLClassExpression> superClasses = this.assertedSuperClasses.get(c);
+            if (superClasses == null) {
+                superClasses = new ArrayList<>();
+                this.assertedSuperClasses.put(c, superClasses);
+            }
+            superClasses.add(axiom.getSuperClass());
+        }
+    }
 
-                classLabel.setText(val.getLiteral().replace("'", "\\'"));
-                classLabel.setLang(val.getLang());
+    /**
+     * @return The `rdfs:label` of every entity of the ontology by its IRI.
+     */
+    private Map<IRI, Label> getLabels (OWLOntology ont) {
+        Map<IRI, Label> labels = new HashMap<>();
+        OWLAnnotationProperty rdfsLabel = this.dataFactory.getRDFSLabel();
+        for (OWLAnnotationAssertionAxiom axiom: ont.getAxioms(AxiomType.ANNOTATION_ASSERTION)) {
+            if (axiom.getProperty().equals(rdfsLabel) &&
+                axiom.getSubject() instanceof IRI &&
+                axiom.getValue() instanceof OWLLiteral) {
+                OWLLiteral val = (OWLLiteral) axiom.getValue();
+                labels.put(
+                    (IRI) axiom.getSubject(),
+                    new Label(val.getLiteral().replace("'", "\\'"), val.getLang())
+                );
             }
         }
-        return classLabel;
+        return labels;
     }
 
-    private void storeLabel (OWLClass c, String classUri) {
-        Label classLabel = this.getLabel(c, this.ontology);
+    private Label getLabel (OWLClass c, Map<IRI, Label> labels) {
+        Label classLabel = labels.get(c.getIRI());
+        return classLabel != null ? classLabel : new Label(null, null);
+    }
+
+    /**
+     * Collects the name and label related properties of a class so that they
+     * can be set while merging the node.
+     */
+    private Map<String, String> getClassProperties (OWLClass c, String classOntID) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("name", classOntID);
+
+        Label classLabel = this.getLabel(c, this.ontologyLabels);
 
         if (StringUtils.isBlank(classLabel.text)) {
-            Set<OWLOntology> importedOntologies = this.ontology.getImports();
-            for (OWLOntology ont: importedOntologies) {
-                classLabel = this.getLabel(c, ont);
+            for (Map<IRI, Label> labels: this.importLabels) {
+                classLabel = this.getLabel(c, labels);
                 if (StringUtils.isNotEmpty(classLabel.text)) {
                     break;
                 }
@@ -766,242 +1623,141 @@ public class Owl2Neo4J {
         }
 
         if (StringUtils.isNotBlank(classLabel.text)) {
-            setProperty(
-                CLASS_NODE_LABEL,
-                classUri,
-                "rdfs:label",
-                classLabel.text
-            );
+            properties.put("rdfs:label", classLabel.text);
         }
 
         if (StringUtils.isNoneBlank(classLabel.lang)) {
-            setProperty(
-                CLASS_NODE_LABEL,
-                classUri,
-                "labelLang",
-                classLabel.lang
-            );
+            properties.put("labelLang", classLabel.lang);
         }
+
+        return properties;
     }
 
-    private Set<OWLClass> getEquivalentClasses (OWLReasoner reasoner, OWLClass c) {
-        Node<OWLClass> equivalentClasses = reasoner.getEquivalentClasses(c);
-        Set<OWLClass> results;
-        if (!c.isAnonymous()) {
-            results = equivalentClasses.getEntities();
-        } else {
-            results = equivalentClasses.getEntitiesMinus(c.asOWLClass());
+    static void checkForError (Neo4jClient.Response response) throws StatementException {
+        if (response.hasError()) {
+            throw new StatementException(-1, response.errorCode, response.errorCode + ": \"" + response.errorMessage + "\"");
         }
-        return results;
     }
 
-    private void initTransaction () {
-        // Fire empty statement to initialize transaction
-        try {
-            HttpResponse<JsonNode> response = Unirest.post(
-                this.server_root_url + TRANSACTION_ENDPOINT)
-                    .body("{\"statements\":[]}")
-                    .asJson();
-            Headers headers = response.getHeaders();
-            String location = "";
-            if (headers.containsKey("location")) {
-                location = headers.get("location").toString();
-                this.transaction = location.substring(
-                    location.lastIndexOf("/"),
-                    location.length() -1
-                );
-            }
-            if (this.verbose_output) {
-                System.out.println(
-                    "Transaction initialized. Commit at " +
-                        location +
-                        " [Neo4J status:" +
-                        Integer.toString(response.getStatus()) +
-                        "]"
-                );
-            }
-            checkForError(response);
-        } catch (Exception e) {
-            print_error(ANSI_RESET_DIM + "Error initiating transaction");
-            print_error(e.getMessage());
-            System.exit(1);
+    /**
+     * Checks the response of a multi-statement request. Neo4J stops at the
+     * first failing statement and only returns results for the statements
+     * before it, so the number of results is the index of the culprit.
+     */
+    static void checkForError (Neo4jClient.Response response, List<JsonObject> statements) throws StatementException {
+        if (response.hasError()) {
+            String errorMsg = response.errorCode + ": \"" + response.errorMessage + "\"";
+            int index = Math.min(response.numResults, statements.size() - 1);
+            throw new StatementException(index, response.errorCode, errorMsg);
         }
     }
 
-    private void commitTransaction () {
-        // Fire empty statement to initialize transaction
-        try {
-            HttpResponse<JsonNode> response = Unirest.post(
-                this.server_root_url + TRANSACTION_ENDPOINT + this.transaction + "/commit")
-                .body("{\"statements\":[]}")
-                    .asJson();
-            if (this.verbose_output) {
-                System.out.println(
-                    "Transaction committed. [Neo4J status:" +
-                    Integer.toString(response.getStatus()) +
-                    "]"
-                );
-            }
-            checkForError(response);
-        } catch (Exception e) {
-            print_error(ANSI_RESET_DIM + "Error committing transaction");
-            print_error(e.getMessage());
-            System.exit(1);
+    /**
+     * Creates a node which is only referenced, e.g. a superclass.
+     */
+    private void createNode (String classLabel, String classOntID, String classUri) throws IOException {
+        // Nodes that have been written before don't need to be merged again.
+        if (this.uriCache != null && !this.uriCache.markEmitted(classUri)) {
+            return;
         }
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("name", classOntID);
+        this.sink.referenceNode(classLabel, classUri, properties);
     }
 
-    private ExecutorService keepTransactionAlive (final String url, final int interval, final boolean verbose) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(new Runnable() {
-            @Override
-            public void run() {
-                boolean looping = true;
-                while (looping) {
-                    // Fire empty statement to keep transaction alive
-                    try {
-                        TimeUnit.SECONDS.sleep(interval);
-                        HttpResponse<JsonNode> response = Unirest.post(url)
-                            .body("{\"statements\":[]}")
-                            .asJson();
-                        if (verbose) {
-                            System.out.println(
-                                "Pinging transaction. [Neo4J status:" +
-                                    Integer.toString(response.getStatus()) +
-                                    "]"
-                            );
-                        }
-                    } catch (InterruptedException e) {
-                        if (verbose) {
-                            System.out.println("Stop alive keeper");
-                        }
-                        looping = false;
-                    } catch (Exception e) {
-                        print_error(ANSI_RESET_DIM + "Error keeping transaction alive");
-                        print_error(e.getMessage());
-                        System.exit(1);
-                    }
+    /**
+     * Creates the reasoner factory selected with `--reasoner`:
+     *
+     * - `hermit`: Full OWL 2 DL reasoning with HermiT
+     * - `elk`: OWL 2 EL reasoning with ELK, which is much faster for large
+     *   ontologies but ignores axioms outside of the EL profile
+     * - `structural`: No reasoning at all. Superclasses and equivalent classes
+     *   are read from the asserted axioms.
+     */
+    private OWLReasonerFactory createReasonerFactory () {
+        switch (this.reasoner_name) {
+            case "elk":
+                // ELK logs every reasoning stage
+                if (!this.verbose_output) {
+                    LogManager.getLogger("org.semanticweb.elk").setLevel(Level.WARN);
                 }
-            }
-        });
-
-        return executor;
+                return new ElkReasonerFactory();
+            case "structural":
+                return new StructuralReasonerFactory();
+            default:
+                return new Reasoner.ReasonerFactory();
+        }
     }
 
-    private void closeTransactionAliveKeeper (ExecutorService executor, boolean verbose) {
-        try {
-            executor.shutdown();
-            executor.awaitTermination(5, TimeUnit.SECONDS);
+    /**
+     * Creates the sink all nodes and relationships of the current ontology
+     * are written to.
+     */
+    private GraphSink createSink () throws IOException {
+        if (this.dry_run) {
+            return new CountingSink(this.verbose_output);
         }
-        catch (InterruptedException e) {
-            if (verbose) {
-                System.out.println("Alive keeper interrupted");
-            }
+        if (StringUtils.isNotBlank(this.export_csv_dir)) {
+            return new CsvSink(
+                new File(this.export_csv_dir),
+                this.ontology_acronym,
+                CLASS_NODE_LABEL,
+                ONTOLOGY_NODE_LABEL,
+                this.verbose_output
+            );
         }
-        finally {
-            if (verbose) {
-                System.out.println("Force shutdown alive keeper");
-            }
-            executor.shutdownNow();
+        if (StringUtils.isNotBlank(this.export_cypher_file)) {
+            return new CypherScriptSink(
+                this.cypher_script,
+                new File(this.export_cypher_file),
+                CLASS_NODE_LABEL,
+                this.ontology_acronym,
+                this.chunk_size,
+                CYPHER_SCRIPT_STATEMENTS_PER_TRANSACTION,
+                this.verbose_output
+            );
         }
-    }
-
-    private static void checkForError (HttpResponse<JsonNode> response) throws Exception {
-        JSONObject jsonResponse = response.getBody().getObject();
-        JSONArray errors = (JSONArray) jsonResponse.get("errors");
-        if (errors.length() > 0) {
-            JSONObject error = (JSONObject) errors.get(0);
-            String errorMsg = error.get("code").toString() + ": \"" + error.get("message").toString() + "\"";
-            throw new Exception(errorMsg);
+        if (this.isBolt()) {
+            // Class nodes and relationships are always written in chunks
+            return new BoltSink(
+                this.ontology_acronym,
+                CLASS_NODE_LABEL,
+                this.chunk_size,
+                this.flush_size,
+                this.commit_every,
+                this.max_retries,
+                this.verbose_output,
+                this.cqlLogger
+            );
         }
-    }
-
-    private void createNode (String classLabel, String classOntID, String classUri) {
-        // Uniqueness for Class nodes needs to be defined before
-        // Look: cypher/constraints.cql
-        // Example: cypher/createClass.cql
-        String cql = "MERGE (n:`" + classLabel + "` {uri:{classUri}});";
-        JsonObject json = Json.createObjectBuilder()
-            .add("statements", Json.createArrayBuilder()
-                .add(Json.createObjectBuilder()
-                    .add("statement", cql)
-                    .add("parameters", Json.createObjectBuilder()
-                        .add("classUri", classUri)
-                    )
-                )
-            )
-            .build();
-        queryNeo4J(json, this.server_root_url + TRANSACTION_ENDPOINT + this.transaction, "Error creating a node");
-        setLabel(classLabel, "uri", classUri, this.ontology_acronym);
-        setProperty(classLabel, classUri, "name", classOntID);
-    }
-
-    private void setLabel (String classLabel, String key, String value, String newLabel) {
-        String cql = "MATCH (n:`" + classLabel + "` {" + key + ":{value}}) SET n :`" + newLabel + "`;";
-        JsonObject json = Json.createObjectBuilder()
-            .add("statements", Json.createArrayBuilder()
-                .add(Json.createObjectBuilder()
-                    .add("statement", cql)
-                    .add("parameters", Json.createObjectBuilder()
-                        .add("value", value)
-                    )
-                )
-            )
-            .build();
-        queryNeo4J(json, this.server_root_url + TRANSACTION_ENDPOINT + this.transaction, "Error creating a label");
-    }
-
-    private void createRelationship (String srcLabel, String srcUri, String destLabel, String destUri, String relationship) {
-        // Example: cypher/createRelationship.cql
-        String cql = "MATCH (src:`" + srcLabel + "` {uri:{srcUri}}), (dest:`" + destLabel + "` {uri:{destUri}}) MERGE (src)-[:`" + relationship + "`]->(dest);";
-        JsonObject json = Json.createObjectBuilder()
-            .add("statements", Json.createArrayBuilder()
-                .add(Json.createObjectBuilder()
-                    .add("statement", cql)
-                    .add("parameters", Json.createObjectBuilder()
-                        .add("srcUri", srcUri)
-                        .add("destUri", destUri)
-                    )
-                )
-            )
-            .build();
-        queryNeo4J(json, this.server_root_url + TRANSACTION_ENDPOINT + this.transaction, "Error creating a relationship");
-    }
-
-    private void setProperty (String classLabel, String classUri, String propertyName, String propertyValue) {
-        // Example: cypher/setProperty.cql
-        String cql = "MATCH (n:`" + classLabel + "` {uri:{classUri}}) SET n.`" + propertyName + "` = {propertyValue};";
-        JsonObject json = Json.createObjectBuilder()
-            .add("statements", Json.createArrayBuilder()
-                .add(Json.createObjectBuilder()
-                    .add("statement", cql)
-                    .add("parameters", Json.createObjectBuilder()
-                        .add("classUri", classUri)
-                        .add("propertyValue", propertyValue)
-                    )
-                )
-            )
-            .build();
-        queryNeo4J(json, this.server_root_url + TRANSACTION_ENDPOINT + this.transaction, "Error creating a node property");
-    }
-
-    private void queryNeo4J (JsonObject json, String url, String errorTitle) {
-        try {
-            HttpResponse<JsonNode> response = Unirest.post(url)
-                .body(json.toString())
-                .asJson();
-
-            if (this.verbose_output) {
-                System.out.println("CQL: " + json);
-                this.cqlLogger.info(json.toString());
-            }
-
-            checkForError(response);
-        } catch (Exception e) {
-            print_error(ANSI_RESET_DIM + errorTitle);
-            print_error("CQL: " + json);
-            print_error(e.getMessage());
-            System.exit(1);
+        if (this.bulk_import) {
+            return new UnwindHttpSink(
+                this.server_root_url,
+                this.ontology_acronym,
+                CLASS_NODE_LABEL,
+                this.chunk_size,
+                this.flush_size,
+                this.flush_bytes,
+                this.writers,
+                this.queue_depth,
+                this.commit_every,
+                this.max_retries,
+                this.verbose_output,
+                this.cqlLogger
+            );
         }
+        return new HttpSink(
+            this.server_root_url,
+            this.ontology_acronym,
+            this.flush_size,
+            this.flush_bytes,
+            this.writers,
+            this.queue_depth,
+            this.commit_every,
+            this.max_retries,
+            this.verbose_output,
+            this.cqlLogger
+        );
     }
 
     /**
@@ -1068,7 +1824,7 @@ public class Owl2Neo4J {
             .numberOfArgs(1)
             .type(String.class)
             .longOpt("server")
-            .desc("Neo4J server root URL [Default: http://localhost:7474]")
+            .desc("Neo4J server root URL. `bolt://` URLs are written via Bolt. [Default: http://localhost:7474]")
             .build();
 
         Option user = Option.builder("u")
@@ -1118,6 +1874,213 @@ public class Owl2Neo4J {
             .desc("Don't scan for locally available OWL files to ensure loading remote files.")
             .build();
 
+        Option bulk = Option.builder()
+            .longOpt("bulk")
+            .desc("Write classes and relationships in chunks using UNWIND statements")
+            .build();
+
+        Option chunkSize = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("chunk-size")
+            .desc("Number of rows per UNWIND statement in bulk mode and Cypher exports [Default: 5000]")
+            .build();
+
+        Option exportCsv = Option.builder()
+            .argName("Path")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(String.class)
+            .longOpt("export-csv")
+            .desc("Write CSV files for `neo4j-admin import` to this directory instead of importing into Neo4J")
+            .build();
+
+        Option exportCypher = Option.builder()
+            .argName("Path")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(String.class)
+            .longOpt("export-cypher")
+            .desc("Write a cypher-shell script to this file instead of importing into Neo4J. Files ending with .gz are compressed.")
+            .build();
+
+        Option dryRun = Option.builder()
+            .longOpt("dry-run")
+            .desc("Extract the graph without writing it anywhere. Counts are reported with -v.")
+            .build();
+
+        Option flushSize = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("flush-size")
+            .desc("Max. number of statements sent to Neo4J per request [Default: 500]")
+            .build();
+
+        Option flushBytes = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("flush-bytes")
+            .desc("Max. size in bytes of a request sent to Neo4J [Default: 1048576]")
+            .build();
+
+        Option extractionThreads = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("extraction-threads")
+            .desc("Number of threads extracting classes from the class hierarchy [Default: number of CPU cores]")
+            .build();
+
+        Option writers = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("writers")
+            .desc("Number of threads sending statements to Neo4J. With more than one writer every request is committed on its own. [Default: 1]")
+            .build();
+
+        Option queueDepth = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("queue-depth")
+            .desc("Max. number of requests waiting for a writer [Default: 8]")
+            .build();
+
+        Option twoPhase = Option.builder()
+            .longOpt("two-phase")
+            .desc("Write all class nodes first and all relationships afterwards, so that every node is written only once")
+            .build();
+
+        Option compactGraph = Option.builder()
+            .longOpt("compact-graph")
+            .desc("Keep the extracted classes in a compact in-memory graph and write them in two phases. Needs less memory for very large ontologies.")
+            .build();
+
+        Option reasoner = Option.builder()
+            .argName("Name")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(String.class)
+            .longOpt("reasoner")
+            .desc("Reasoner used for classification: hermit, elk (OWL 2 EL only) or structural (asserted hierarchy only) [Default: hermit]")
+            .build();
+
+        Option cacheDir = Option.builder()
+            .argName("Path")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(String.class)
+            .longOpt("cache-dir")
+            .desc("Cache the class hierarchy in this directory and reuse it as long as the ontology, its imports and the reasoner are unchanged")
+            .build();
+
+        Option incremental = Option.builder()
+            .argName("Path")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(String.class)
+            .longOpt("incremental")
+            .desc("Keep a snapshot of every import in this directory and only write the changes since the last import of the ontology")
+            .build();
+
+        Option preferCompact = Option.builder()
+            .longOpt("prefer-compact")
+            .desc("Load a .ofn or .obo file with the same name as the OWL file instead if it exists and isn't older")
+            .build();
+
+        Option httpConnections = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("http-connections")
+            .desc("Max. number of pooled HTTP connections to Neo4J, which are kept alive between requests [Default: 20]")
+            .build();
+
+        Option httpGzip = Option.builder()
+            .longOpt("http-gzip")
+            .desc("Compress requests to Neo4J with gzip. Pays off when Neo4J is on a slow network.")
+            .build();
+
+        Option httpTimeout = Option.builder()
+            .argName("Seconds")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("http-timeout")
+            .desc("Give up on an HTTP request to Neo4J after this many seconds without a response and retry it with a smaller batch. 0 waits forever. [Default: 900]")
+            .build();
+
+        Option connectTimeout = Option.builder()
+            .argName("Seconds")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("connect-timeout")
+            .desc("Give up connecting to Neo4J via HTTP after this many seconds. 0 waits forever. [Default: 30]")
+            .build();
+
+        Option metricsOut = Option.builder()
+            .argName("Path")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(String.class)
+            .longOpt("metrics-out")
+            .desc("Write timings of every phase, request latencies and counts to this JSON file once all imports are done")
+            .build();
+
+        Option checkpointDir = Option.builder()
+            .argName("Path")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(String.class)
+            .longOpt("checkpoint-dir")
+            .desc("Record which classes have been committed in this directory, so that a failed import can be resumed with --resume. Also caches the class hierarchy there unless --cache-dir is given.")
+            .build();
+
+        Option resume = Option.builder()
+            .longOpt("resume")
+            .desc("Continue a failed import from its checkpoint in --checkpoint-dir instead of writing all classes again")
+            .build();
+
+        Option commitEvery = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("commit-every")
+            .desc("Commit and start a new transaction after this many nodes and relationships. 0 uses one transaction per ontology. [Default: 0]")
+            .build();
+
+        Option skipSchema = Option.builder()
+            .longOpt("skip-schema")
+            .desc("Don't check for the indexes and constraints from cypher/constraints.cql, e.g. when the Neo4J user isn't allowed to create them")
+            .build();
+
+        Option acronymIndex = Option.builder()
+            .longOpt("acronym-index")
+            .desc("Create an index on the URI of nodes labeled with the ontology's acronym")
+            .build();
+
+        Option maxRetries = Option.builder()
+            .argName("Number")
+            .hasArg()
+            .numberOfArgs(1)
+            .type(Number.class)
+            .longOpt("max-retries")
+            .desc("Retry requests that failed transiently, e.g. because of a deadlock or a lack of memory, this many times. Open transactions are only retried with --commit-every. 0 disables retrying. [Default: 5]")
+            .build();
+
         all_options.addOption(help);
         all_options.addOption(version);
         all_options.addOption(verbosity);
@@ -1131,6 +2094,33 @@ public class Owl2Neo4J {
         all_options.addOption(batch);
         all_options.addOption(includeOwlImports);
         all_options.addOption(noLocalOntologies);
+        all_options.addOption(bulk);
+        all_options.addOption(chunkSize);
+        all_options.addOption(exportCsv);
+        all_options.addOption(exportCypher);
+        all_options.addOption(dryRun);
+        all_options.addOption(flushSize);
+        all_options.addOption(flushBytes);
+        all_options.addOption(extractionThreads);
+        all_options.addOption(writers);
+        all_options.addOption(queueDepth);
+        all_options.addOption(commitEvery);
+        all_options.addOption(maxRetries);
+        all_options.addOption(skipSchema);
+        all_options.addOption(acronymIndex);
+        all_options.addOption(metricsOut);
+        all_options.addOption(twoPhase);
+        all_options.addOption(compactGraph);
+        all_options.addOption(reasoner);
+        all_options.addOption(cacheDir);
+        all_options.addOption(incremental);
+        all_options.addOption(preferCompact);
+        all_options.addOption(httpConnections);
+        all_options.addOption(httpGzip);
+        all_options.addOption(httpTimeout);
+        all_options.addOption(connectTimeout);
+        all_options.addOption(checkpointDir);
+        all_options.addOption(resume);
 
         meta_options.addOption(help);
         meta_options.addOption(version);
@@ -1145,9 +2135,63 @@ public class Owl2Neo4J {
         call_options.addOption(eqp);
         call_options.addOption(includeOwlImports);
         call_options.addOption(noLocalOntologies);
+        call_options.addOption(bulk);
+        call_options.addOption(chunkSize);
+        call_options.addOption(exportCsv);
+        call_options.addOption(exportCypher);
+        call_options.addOption(dryRun);
+        call_options.addOption(flushSize);
+        call_options.addOption(flushBytes);
+        call_options.addOption(extractionThreads);
+        call_options.addOption(writers);
+        call_options.addOption(queueDepth);
+        call_options.addOption(commitEvery);
+        call_options.addOption(maxRetries);
+        call_options.addOption(skipSchema);
+        call_options.addOption(acronymIndex);
+        call_options.addOption(metricsOut);
+        call_options.addOption(twoPhase);
+        call_options.addOption(compactGraph);
+        call_options.addOption(reasoner);
+        call_options.addOption(cacheDir);
+        call_options.addOption(incremental);
+        call_options.addOption(preferCompact);
+        call_options.addOption(httpConnections);
+        call_options.addOption(httpGzip);
+        call_options.addOption(httpTimeout);
+        call_options.addOption(connectTimeout);
+        call_options.addOption(checkpointDir);
+        call_options.addOption(resume);
 
         batch_options.addOption(batch);
         batch_options.addOption(verbosity);
+        batch_options.addOption(bulk);
+        batch_options.addOption(chunkSize);
+        batch_options.addOption(exportCsv);
+        batch_options.addOption(exportCypher);
+        batch_options.addOption(dryRun);
+        batch_options.addOption(flushSize);
+        batch_options.addOption(flushBytes);
+        batch_options.addOption(extractionThreads);
+        batch_options.addOption(writers);
+        batch_options.addOption(queueDepth);
+        batch_options.addOption(commitEvery);
+        batch_options.addOption(maxRetries);
+        batch_options.addOption(skipSchema);
+        batch_options.addOption(acronymIndex);
+        batch_options.addOption(metricsOut);
+        batch_options.addOption(twoPhase);
+        batch_options.addOption(compactGraph);
+        batch_options.addOption(reasoner);
+        batch_options.addOption(cacheDir);
+        batch_options.addOption(incremental);
+        batch_options.addOption(preferCompact);
+        batch_options.addOption(httpConnections);
+        batch_options.addOption(httpGzip);
+        batch_options.addOption(httpTimeout);
+        batch_options.addOption(connectTimeout);
+        batch_options.addOption(checkpointDir);
+        batch_options.addOption(resume);
 
         try {
             // Parse only for meta options, e.g. `-h` and `-v`
@@ -1171,22 +2215,35 @@ public class Owl2Neo4J {
         }
 
         boolean batchImport;
+        CommandLine batch_cl = null;
 
         try {
             // Parse only for batch options, e.g. `-b`
-            cl = new DefaultParser().parse(batch_options, args, true);
+            batch_cl = new DefaultParser().parse(batch_options, args, true);
 
-            this.path_to_batch = cl.getOptionValue("b");
+            this.path_to_batch = batch_cl.getOptionValue("b");
 
-            if (cl.hasOption("v")) {
+            if (batch_cl.hasOption("v")) {
                 this.verbose_output = true;
             }
+
             batchImport = true;
         }  catch (ParseException e) {
             batchImport = false;
         }
 
-        if (!batchImport) {
+        if (batchImport) {
+            // Outside of the try above, which would fall back to call options
+            try {
+                this.parseTuningOptions(batch_cl);
+            } catch (ParseException e) {
+                print_error("Error parsing command line batch options");
+                print_error(e.getMessage());
+                System.out.println("\n");
+                usage(all_options);
+                System.exit(1);
+            }
+        } else {
             try {
                 cl = new DefaultParser().parse(call_options, args);
 
@@ -1197,6 +2254,8 @@ public class Owl2Neo4J {
                 this.no_local_owl_files = cl.hasOption("l");
                 this.server_root_url = cl.getOptionValue("s", "http://localhost:7474");
                 this.neo4j_authentication_header = "Basic: " + Base64.encodeBase64String((cl.getOptionValue("u") + ":" + cl.getOptionValue("p")).getBytes());
+                this.neo4j_user = cl.getOptionValue("u");
+                this.neo4j_password = cl.getOptionValue("p");
 
                 if (cl.hasOption("eqp")) {
                     this.eqps = new HashSet<>(Arrays.asList(cl.getOptionValues("eqp")));
@@ -1206,6 +2265,8 @@ public class Owl2Neo4J {
                     this.verbose_output = true;
                 }
 
+                this.parseTuningOptions(cl);
+
                 if (!this.path_to_owl.startsWith("/") || !this.path_to_owl.startsWith("./")) {
                     this.path_to_owl = "./" + this.path_to_owl;
                 }
@@ -1219,6 +2280,97 @@ public class Owl2Neo4J {
         }
     }
 
+    /**
+     * Parses options shared by single and batch imports that tune the import.
+     */
+    private void parseTuningOptions(CommandLine cl) throws ParseException {
+        this.bulk_import = cl.hasOption("bulk");
+        this.export_csv_dir = cl.getOptionValue("export-csv");
+        this.export_cypher_file = cl.getOptionValue("export-cypher");
+        this.dry_run = cl.hasOption("dry-run");
+        if (cl.hasOption("chunk-size")) {
+            this.chunk_size = ((Number) cl.getParsedOptionValue("chunk-size")).intValue();
+        }
+        if (cl.hasOption("flush-size")) {
+            this.flush_size = ((Number) cl.getParsedOptionValue("flush-size")).intValue();
+        }
+        if (cl.hasOption("flush-bytes")) {
+            this.flush_bytes = ((Number) cl.getParsedOptionValue("flush-bytes")).longValue();
+        }
+        if (cl.hasOption("extraction-threads")) {
+            this.extraction_threads = ((Number) cl.getParsedOptionValue("extraction-threads")).intValue();
+        }
+        if (cl.hasOption("writers")) {
+            this.writers = ((Number) cl.getParsedOptionValue("writers")).intValue();
+        }
+        if (cl.hasOption("queue-depth")) {
+            this.queue_depth = ((Number) cl.getParsedOptionValue("queue-depth")).intValue();
+        }
+        this.two_phase = cl.hasOption("two-phase");
+        this.compact_graph = cl.hasOption("compact-graph");
+        this.cache_dir = cl.getOptionValue("cache-dir");
+        this.incremental_dir = cl.getOptionValue("incremental");
+        this.prefer_compact = cl.hasOption("prefer-compact");
+        if (cl.hasOption("http-connections")) {
+            this.http_connections = ((Number) cl.getParsedOptionValue("http-connections")).intValue();
+        }
+        this.http_gzip = cl.hasOption("http-gzip");
+        if (cl.hasOption("http-timeout")) {
+            this.http_timeout = ((Number) cl.getParsedOptionValue("http-timeout")).intValue();
+            if (this.http_timeout < 0) {
+                throw new ParseException("--http-timeout must not be negative");
+            }
+        }
+        if (cl.hasOption("connect-timeout")) {
+            this.connect_timeout = ((Number) cl.getParsedOptionValue("connect-timeout")).intValue();
+            if (this.connect_timeout < 0) {
+                throw new ParseException("--connect-timeout must not be negative");
+            }
+        }
+        this.checkpoint_dir = cl.getOptionValue("checkpoint-dir");
+        this.resume = cl.hasOption("resume");
+        if (this.resume && this.checkpoint_dir == null) {
+            throw new ParseException("--resume needs --checkpoint-dir");
+        }
+        if (this.checkpoint_dir != null) {
+            // Checkpoints only work when classes are written as they are extracted
+            if (this.dry_run || this.export_csv_dir != null || this.export_cypher_file != null) {
+                throw new ParseException("--checkpoint-dir can't be combined with exports or --dry-run");
+            }
+            if (this.two_phase || this.compact_graph || this.incremental_dir != null) {
+                throw new ParseException("--checkpoint-dir can't be combined with --two-phase, --compact-graph or --incremental");
+            }
+            if (this.cache_dir == null) {
+                // Resuming shouldn't have to classify again
+                this.cache_dir = this.checkpoint_dir;
+            }
+        }
+        if (this.incremental_dir != null && StringUtils.isNotBlank(this.export_csv_dir)) {
+            throw new ParseException("--incremental can't be combined with --export-csv");
+        }
+        if (cl.hasOption("reasoner")) {
+            this.reasoner_name = cl.getOptionValue("reasoner").toLowerCase();
+            if (!Arrays.asList("hermit", "elk", "structural").contains(this.reasoner_name)) {
+                throw new ParseException("Unknown reasoner: " + this.reasoner_name);
+            }
+        }
+        if (cl.hasOption("commit-every")) {
+            this.commit_every = ((Number) cl.getParsedOptionValue("commit-every")).intValue();
+        }
+        this.metrics_out = cl.getOptionValue("metrics-out");
+        this.skip_schema = cl.hasOption("skip-schema");
+        this.acronym_index = cl.hasOption("acronym-index");
+        if (this.skip_schema && this.acronym_index) {
+            throw new ParseException("--acronym-index can't be combined with --skip-schema");
+        }
+        if (cl.hasOption("max-retries")) {
+            this.max_retries = ((Number) cl.getParsedOptionValue("max-retries")).intValue();
+            if (this.max_retries < 0) {
+                throw new ParseException("--max-retries must not be negative");
+            }
+        }
+    }
+
     /**
      * Prints a usage message to the console.
      */
@@ -0,0 +1,74 @@
+package org.refinery_platform.owl2neo4j;
+
+/** OWL API */
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Class hierarchy answered by a reasoner. Reasoners of the OWL API 3 aren't
+ * thread-safe, e.g. HermiT and the structural reasoner build their caches on
+ * first access, so the hierarchy must only be queried by one thread.
+ */
+class ReasonerHierarchy implements ClassHierarchy {
+
+    private final OWLReasoner reasoner;
+    private final OWLDataFactory dataFactory;
+
+    public ReasonerHierarchy (OWLReasoner reasoner, OWLDataFactory dataFactory) {
+        this.reasoner = reasoner;
+        this.dataFactory = dataFactory;
+    }
+
+    @Override
+    public boolean isSatisfiable (OWLClass c) {
+        return this.reasoner.isSatisfiable(c);
+    }
+
+    @Override
+    public Set<OWLClass> getSuperClasses (OWLClass c) {
+        Set<OWLClass> superClasses = new LinkedHashSet<>();
+        // A node set is a set of nodes and a node is a set of equivalent
+        // classes.
+        // http://owlapi.sourceforge.net/javadoc/org/semanticweb/owlapi/reasoner/Node.html
+        NodeSet<OWLClass> superClassNodeSet = this.reasoner.getSuperClasses(c, true);
+        for (Node<OWLClass> superClassNode: superClassNodeSet) {
+            if (superClassNode.isTopNode()) {
+                // The top node represents owl:Thing and OWL classes equivalent to it.
+                superClasses.add(this.dataFactory.getOWLThing());
+            } else {
+                // Skip unsatisfiable classes, e.g. owl:Nothing and other classes
+                // equivalent to it.
+                superClasses.addAll(superClassNode.getEntitiesMinusBottom());
+            }
+        }
+        return superClasses;
+    }
+
+    @Override
+    public Set<OWLClass> getEquivalentClasses (OWLClass c) {
+        Node<OWLClass> equivalentClasses = this.reasoner.getEquivalentClasses(c);
+        Set<OWLClass> results;
+        if (!c.isAnonymous()) {
+            results = equivalentClasses.getEntities();
+        } else {
+            results = equivalentClasses.getEntitiesMinus(c.asOWLClass());
+        }
+        return results;
+    }
+
+    @Override
+    public boolean isThreadSafe () {
+        return false;
+    }
+
+    @Override
+    public void dispose () {
+        this.reasoner.dispose();
+    }
+}
@@ -0,0 +1,153 @@
+package org.refinery_platform.owl2neo4j;
+
+/** Neo4J Java driver */
+import org.neo4j.driver.v1.exceptions.Neo4jException;
+import org.neo4j.driver.v1.exceptions.ServiceUnavailableException;
+import org.neo4j.driver.v1.exceptions.SessionExpiredException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a failed request to Neo4J is retried and how long to wait
+ * before the next attempt.
+ *
+ * Failures are classified by the error code Neo4J reports:
+ *
+ * - `PRESSURE`: Neo4J ran out of memory or time, e.g.
+ *   `Neo.TransientError.General.OutOfMemoryError` or a timed out transaction.
+ *   Retried with smaller batches.
+ * - `TRANSIENT`: Every other `Neo.TransientError`, e.g. deadlocks, transactions
+ *   that Neo4J doesn't know anymore, unavailable servers (HTTP 502, 503) and
+ *   broken connections. Retried as they are.
+ * - `FATAL`: Everything else, e.g. syntax errors, wrong credentials or an
+ *   HTTP 500 without a `Neo.TransientError` code.
+ *
+ * Retrying is safe as every statement merges or deletes, so running a
+ * statement twice has the same effect as running it once.
+ *
+ * Attempts are spaced with exponential backoff and full jitter, i.e. a random
+ * delay between 0 and `BASE_DELAY_MILLIS` * 2^(attempt - 1), so that several writers
+ * don't retry in lockstep.
+ */
+class RetryPolicy {
+
+    enum Kind {
+        FATAL,
+        TRANSIENT,
+        PRESSURE
+    }
+
+    private static final long BASE_DELAY_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 30000;
+
+    private final int maxRetries;
+    private final boolean verbose;
+    private final Random random = new Random();
+
+    public RetryPolicy (int maxRetries, boolean verbose) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.verbose = verbose;
+    }
+
+    public static Kind classify (String errorCode) {
+        if (errorCode == null) {
+            return Kind.FATAL;
+        }
+        if (
+            errorCode.contains("OutOfMemory") ||
+            errorCode.contains("MemoryPool") ||
+            errorCode.contains("MemoryLimit") ||
+            errorCode.contains("StackOverFlow") ||
+            errorCode.endsWith("TransactionTimedOut") ||
+            errorCode.equals("HTTP 504")
+        ) {
+            return Kind.PRESSURE;
+        }
+        if (
+            errorCode.startsWith("Neo.TransientError.") ||
+            errorCode.equals("Neo.ClientError.Transaction.TransactionNotFound") ||
+            errorCode.equals("HTTP 502") ||
+            errorCode.equals("HTTP 503")
+        ) {
+            return Kind.TRANSIENT;
+        }
+        return Kind.FATAL;
+    }
+
+    /**
+     * Classifies errors reported by Neo4J, via HTTP or Bolt, as well as
+     * failed connections.
+     */
+    public static Kind classify (Exception e) {
+        if (e instanceof Owl2Neo4J.StatementException) {
+            return classify(((Owl2Neo4J.StatementException) e).getCode());
+        }
+        if (e instanceof ServiceUnavailableException || e instanceof SessionExpiredException) {
+            return Kind.TRANSIENT;
+        }
+        if (e instanceof Neo4jException) {
+            return classify(((Neo4jException) e).code());
+        }
+        if (e instanceof SocketTimeoutException) {
+            // No response within `--http-timeout`, most likely because the
+            // request is too big
+            return Kind.PRESSURE;
+        }
+        if (e instanceof IOException) {
+            return Kind.TRANSIENT;
+        }
+        return Kind.FATAL;
+    }
+
+    /**
+     * @param attempt Number of attempts that have failed so far
+     */
+    public boolean shouldRetry (Kind kind, int attempt) {
+        return kind != Kind.FATAL && attempt <= this.maxRetries;
+    }
+
+    /**
+     * Runs a request until it succeeds, fails for good or runs out of
+     * retries.
+     *
+     * @throws Exception The last failure
+     */
+    public <T> T call (Callable<T> request) throws Exception {
+        int attempt = 0;
+        while (true) {
+            try {
+                return request.call();
+            } catch (Exception e) {
+                attempt++;
+                if (!this.shouldRetry(classify(e), attempt)) {
+                    throw e;
+                }
+                this.backoff(attempt, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits before the next attempt.
+     */
+    public void backoff (int attempt, String reason) throws IOException {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 20));
+        long delay = (long) (this.random.nextDouble() * ceiling);
+        MetricsReport.get().retried();
+        if (this.verbose) {
+            System.out.println(
+                "Retrying in " + delay + " ms (attempt " + attempt + " of " + this.maxRetries + "): " + reason
+            );
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to retry");
+        }
+    }
+}
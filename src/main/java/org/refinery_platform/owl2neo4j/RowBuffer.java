@@ -0,0 +1,82 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.util.*;
+
+/**
+ * Collects node and relationship rows for `UNWIND` statements.
+ *
+ * Node rows are merged by URI, so a class that is referenced several times
+ * within one chunk ends up in a single row. Relationship rows are grouped by
+ * type as relationship types can't be parameterized.
+ *
+ * The number of rows per chunk can be scaled by a `BatchSizer`.
+ */
+class RowBuffer {
+
+    private final int maxRows;
+    private final BatchSizer sizer;
+
+    private final Map<String, Map<String, String>> nodes = new LinkedHashMap<>();
+    private final Map<String, List<Owl2Neo4J.Tuple<String, String>>> edges = new LinkedHashMap<>();
+    private int numEdges = 0;
+
+    public RowBuffer (int maxRows) {
+        this(maxRows, null);
+    }
+
+    public RowBuffer (int maxRows, BatchSizer sizer) {
+        this.maxRows = Math.max(1, maxRows);
+        this.sizer = sizer;
+    }
+
+    /**
+     * @return `true` if the node rows should be written.
+     */
+    public boolean addNode (String uri, Map<String, String> properties) {
+        Map<String, String> row = this.nodes.get(uri);
+        if (row == null) {
+            this.nodes.put(uri, new LinkedHashMap<>(properties));
+        } else {
+            row.putAll(properties);
+        }
+        return this.nodes.size() >= this.getMaxRows();
+    }
+
+    /**
+     * @return `true` if the relationship rows should be written.
+     */
+    public boolean addEdge (String type, String srcUri, String destUri) {
+        List<Owl2Neo4J.Tuple<String, String>> rows = this.edges.get(type);
+        if (rows == null) {
+            rows = new ArrayList<>();
+            this.edges.put(type, rows);
+        }
+        rows.add(new Owl2Neo4J.Tuple<>(srcUri, destUri));
+        this.numEdges++;
+        return this.numEdges >= this.getMaxRows();
+    }
+
+    /**
+     * Current number of rows per chunk.
+     */
+    public int getMaxRows () {
+        return this.sizer == null ? this.maxRows : this.sizer.limit(this.maxRows);
+    }
+
+    public Map<String, Map<String, String>> getNodes () {
+        return this.nodes;
+    }
+
+    public Map<String, List<Owl2Neo4J.Tuple<String, String>>> getEdges () {
+        return this.edges;
+    }
+
+    public void clearNodes () {
+        this.nodes.clear();
+    }
+
+    public void clearEdges () {
+        this.edges.clear();
+        this.numEdges = 0;
+    }
+}
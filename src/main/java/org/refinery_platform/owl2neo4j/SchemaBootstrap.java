@@ -0,0 +1,132 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes sure the indexes and constraints the import relies on exist before
+ * anything is written. Without them, every `MERGE` and `MATCH` on a class URI
+ * scans all nodes with the label, which gets slower with every class.
+ *
+ * Indexes are looked up with `db.indexes()`. Uniqueness constraints show up
+ * there as well, as they are backed by an index. Missing ones are created,
+ * which only populates them in the background, so `db.awaitIndexes()` waits
+ * until all of them are online.
+ *
+ * See `cypher/constraints.cql` and `cypher/indexes.cql`. Constraints on
+ * labels the importer doesn't write, e.g. `:User`, are left alone.
+ */
+class SchemaBootstrap {
+
+    // Populating an index on a large graph takes a while
+    private static final int AWAIT_SECONDS = 600;
+
+    // Index type of uniqueness constraints in `db.indexes()`
+    private static final String UNIQUE_INDEX_TYPE = "node_unique_property";
+
+    /**
+     * Runs a schema statement or query in a transaction of its own.
+     */
+    interface Cypher {
+        /**
+         * @return Rows of the result with every value as a string.
+         */
+        List<List<String>> run (String cql) throws Exception;
+    }
+
+    static class Index {
+        final String label;
+        final String property;
+        final boolean unique;
+
+        Index (String label, String property, boolean unique) {
+            this.label = label;
+            this.property = property;
+            this.unique = unique;
+        }
+
+        /**
+         * @return How `db.indexes()` describes the index.
+         */
+        String getDescription () {
+            return "INDEX ON :" + this.label + "(" + this.property + ")";
+        }
+
+        String getCreateStatement () {
+            if (this.unique) {
+                return "CREATE CONSTRAINT ON (n:`" + this.label + "`) ASSERT n.`" + this.property + "` IS UNIQUE;";
+            }
+            return "CREATE INDEX ON :`" + this.label + "`(`" + this.property + "`);";
+        }
+
+        @Override
+        public String toString () {
+            return (this.unique ? "Constraint on :" : "Index on :") + this.label + "(" + this.property + ")";
+        }
+    }
+
+    private final Cypher cypher;
+    private final boolean verbose;
+
+    private int numCreated = 0;
+
+    public SchemaBootstrap (Cypher cypher, boolean verbose) {
+        this.cypher = cypher;
+        this.verbose = verbose;
+    }
+
+    /**
+     * Indexes and constraints needed by every import.
+     *
+     * @param classLabel Label of class nodes
+     * @param ontologyLabel Label of ontology nodes
+     */
+    static List<Index> getRequiredIndexes (String classLabel, String ontologyLabel) {
+        List<Index> indexes = new ArrayList<>();
+        indexes.add(new Index(classLabel, "uri", true));
+        indexes.add(new Index(classLabel, "name", false));
+        indexes.add(new Index(ontologyLabel, "uri", true));
+        indexes.add(new Index(ontologyLabel, "acronym", true));
+        return indexes;
+    }
+
+    /**
+     * Creates the missing indexes and waits until all indexes are online.
+     */
+    public void ensure (List<Index> indexes) throws Exception {
+        Map<String, String> existing = new HashMap<>();
+        for (List<String> row: this.cypher.run("CALL db.indexes() YIELD description, type RETURN description, type;")) {
+            existing.put(row.get(0), row.size() > 1 ? row.get(1) : null);
+        }
+
+        for (Index index: indexes) {
+            if (existing.containsKey(index.getDescription())) {
+                if (index.unique && !UNIQUE_INDEX_TYPE.equals(existing.get(index.getDescription()))) {
+                    // The index still speeds up lookups, but a constraint
+                    // can't be created on top of it.
+                    Owl2Neo4J.print_error(
+                        Owl2Neo4J.ANSI_RESET_DIM + index.getDescription() + " exists but doesn't enforce uniqueness. " +
+                        "Replace it with the constraint from cypher/constraints.cql."
+                    );
+                }
+                continue;
+            }
+            if (this.verbose) {
+                System.out.println("Creating " + index);
+            }
+            this.cypher.run(index.getCreateStatement());
+            this.numCreated++;
+        }
+
+        if (this.verbose) {
+            System.out.println("Waiting for indexes to come online");
+        }
+        this.cypher.run("CALL db.awaitIndexes(" + AWAIT_SECONDS + ");");
+    }
+
+    public int getNumCreated () {
+        return this.numCreated;
+    }
+}
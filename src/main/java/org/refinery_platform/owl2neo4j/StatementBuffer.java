@@ -0,0 +1,199 @@
+package org.refinery_platform.owl2neo4j;
+
+/** JSON **/
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Collects parameterized Cypher statements and sends them to Neo4J's
+ * transactional endpoint as one multi-statement request.
+ *
+ * The buffer is flushed automatically once it holds `maxStatements`
+ * statements or `maxBytes` bytes of JSON. Neo4J executes the statements of a
+ * request in order, so a statement may rely on nodes merged by an earlier one
+ * in the same request.
+ *
+ * The limits are scaled by a `BatchSizer`, so batches get smaller while
+ * Neo4J is under pressure.
+ */
+class StatementBuffer {
+
+    private final String url;
+    private final int maxStatements;
+    private final long maxBytes;
+    private final boolean verbose;
+    private final Logger cqlLogger;
+    private final RetryPolicy retry;
+    private final BatchSizer sizer;
+
+    private final List<JsonObject> statements = new ArrayList<>();
+    private final List<String> errorTitles = new ArrayList<>();
+    private long bytes = 0;
+
+    private long numRequests = 0;
+    private long numStatements = 0;
+
+    public StatementBuffer (String url, int maxStatements, long maxBytes, RetryPolicy retry, BatchSizer sizer, boolean verbose, Logger cqlLogger) {
+        this.url = url;
+        this.maxStatements = Math.max(1, maxStatements);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.retry = retry;
+        this.sizer = sizer;
+        this.verbose = verbose;
+        this.cqlLogger = cqlLogger;
+    }
+
+    /**
+     * Adds a statement to the buffer and flushes if one of the limits is
+     * reached.
+     *
+     * @param cql Cypher statement
+     * @param parameters Statement parameters
+     * @param errorTitle Message printed when this particular statement fails
+     */
+    public void add (String cql, JsonObject parameters, String errorTitle) {
+        JsonObject statement = Json.createObjectBuilder()
+            .add("statement", cql)
+            .add("parameters", parameters)
+            .build();
+
+        this.statements.add(statement);
+        this.errorTitles.add(errorTitle);
+        // +1 for the separating comma
+        this.bytes += statement.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+
+        if (
+            this.statements.size() >= this.sizer.limit(this.maxStatements) ||
+            this.bytes >= this.sizer.limit(this.maxBytes)
+        ) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Sends all buffered statements in a single request.
+     */
+    public void flush () {
+        if (this.statements.isEmpty()) {
+            return;
+        }
+
+        this.send(this.statements, this.errorTitles);
+
+        this.numRequests++;
+        this.numStatements += this.statements.size();
+
+        this.statements.clear();
+        this.errorTitles.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * Sends a batch of statements. The lists are cleared afterwards, so
+     * subclasses that hold on to the batch need to copy them.
+     */
+    protected void send (List<JsonObject> statements, List<String> errorTitles) {
+        post(this.url, statements, errorTitles, this.maxStatements, this.retry, this.sizer, this.verbose, this.cqlLogger);
+    }
+
+    /**
+     * Posts statements to a `/commit` URL, i.e. every request is committed on
+     * its own. Transient failures are retried. When Neo4J is under pressure,
+     * the batch is split in half and both halves are sent one after the
+     * other. Exits when the request keeps failing or Neo4J reports an error
+     * that doesn't go away by retrying.
+     */
+    static void post (String url, List<JsonObject> statements, List<String> errorTitles, int maxStatements, RetryPolicy retry, BatchSizer sizer, boolean verbose, Logger cqlLogger) {
+        int attempt = 0;
+        while (true) {
+            try {
+                request(url, statements, verbose, cqlLogger);
+                sizer.succeeded();
+                return;
+            } catch (Exception e) {
+                RetryPolicy.Kind kind = RetryPolicy.classify(e);
+                attempt++;
+                if (!retry.shouldRetry(kind, attempt)) {
+                    fail(statements, errorTitles, e);
+                }
+                try {
+                    retry.backoff(attempt, e.getMessage());
+                } catch (IOException interrupted) {
+                    fail(statements, errorTitles, e);
+                }
+                if (kind == RetryPolicy.Kind.PRESSURE) {
+                    sizer.shrink(statements.size(), maxStatements);
+                    if (statements.size() > 1) {
+                        int half = statements.size() / 2;
+                        post(url, statements.subList(0, half), errorTitles.subList(0, half), maxStatements, retry, sizer, verbose, cqlLogger);
+                        post(url, statements.subList(half, statements.size()), errorTitles.subList(half, errorTitles.size()), maxStatements, retry, sizer, verbose, cqlLogger);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Posts statements to Neo4J as one request.
+     *
+     * @throws Owl2Neo4J.StatementException When Neo4J reports an error
+     */
+    static Neo4jClient.Response request (String url, List<JsonObject> statements, boolean verbose, Logger cqlLogger) throws Exception {
+        JsonArrayBuilder statementsBuilder = Json.createArrayBuilder();
+        for (JsonObject statement: statements) {
+            statementsBuilder.add(statement);
+        }
+        String payload = Json.createObjectBuilder()
+            .add("statements", statementsBuilder)
+            .build()
+            .toString();
+
+        if (verbose) {
+            System.out.println("CQL (" + statements.size() + " statements): " + payload);
+            if (cqlLogger != null) {
+                cqlLogger.info(payload);
+            }
+        }
+
+        MetricsReport.get().statements(statements.size());
+        Neo4jClient.Response response = Neo4jClient.get().post(url, payload);
+        Owl2Neo4J.checkForError(response, statements);
+        return response;
+    }
+
+    /**
+     * Reports the statement that failed and exits.
+     */
+    static void fail (List<JsonObject> statements, List<String> errorTitles, Exception e) {
+        if (e instanceof Owl2Neo4J.StatementException && ((Owl2Neo4J.StatementException) e).getIndex() >= 0) {
+            int index = ((Owl2Neo4J.StatementException) e).getIndex();
+            Owl2Neo4J.print_error(Owl2Neo4J.ANSI_RESET_DIM + errorTitles.get(index));
+            Owl2Neo4J.print_error("Statement #" + index + " of " + statements.size());
+            Owl2Neo4J.print_error("CQL: " + statements.get(index));
+        } else {
+            Owl2Neo4J.print_error(Owl2Neo4J.ANSI_RESET_DIM + "Error sending " + statements.size() + " statements");
+        }
+        Owl2Neo4J.print_error(e.getMessage());
+        System.exit(1);
+    }
+
+    public int size () {
+        return this.statements.size();
+    }
+
+    public long getNumRequests () {
+        return this.numRequests;
+    }
+
+    public long getNumStatements () {
+        return this.numStatements;
+    }
+}
@@ -0,0 +1,222 @@
+package org.refinery_platform.owl2neo4j;
+
+/** JSON **/
+import javax.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Sends batches of statements to Neo4J from several writer threads at once.
+ * Every batch is committed on its own via the `/commit` endpoint, i.e. there
+ * is no transaction spanning the whole import.
+ *
+ * Batches are queued in a bounded queue, so adding statements blocks once the
+ * writers fall behind.
+ *
+ * Ordering rule: statements that merge nodes don't depend on anything and are
+ * sent in any order. Statements that depend on nodes, e.g. relationships that
+ * `MATCH` both of their ends, are only sent once every node batch queued
+ * before them has been committed. Pending node statements are queued before
+ * a batch of dependent statements so that this covers all nodes added so far.
+ * A batch counts as committed once it went through, retries included.
+ */
+class StatementPipeline {
+
+    private static class Batch {
+        final List<JsonObject> statements;
+        final List<String> errorTitles;
+        // Sequence number of a node batch or the number of node batches a
+        // dependent batch has to wait for
+        final long sequence;
+        final boolean dependent;
+
+        Batch (List<JsonObject> statements, List<String> errorTitles, long sequence, boolean dependent) {
+            this.statements = new ArrayList<>(statements);
+            this.errorTitles = new ArrayList<>(errorTitles);
+            this.sequence = sequence;
+            this.dependent = dependent;
+        }
+    }
+
+    // Tells a writer to stop
+    private static final Batch END = new Batch(new ArrayList<JsonObject>(), new ArrayList<String>(), 0, false);
+
+    private final String url;
+    private final int maxStatements;
+    private final RetryPolicy retry;
+    private final BatchSizer sizer;
+    private final boolean verbose;
+    private final Logger cqlLogger;
+
+    private final BlockingQueue<Batch> queue;
+    private final ExecutorService writers;
+    private final int numWriters;
+
+    private final StatementBuffer nodeStatements;
+    private final StatementBuffer dependentStatements;
+
+    // Guards everything below
+    private final Object lock = new Object();
+    private long numNodeBatches = 0;
+    // All node batches up to this sequence number are committed
+    private long committedNodeBatches = 0;
+    private final Set<Long> committedAhead = new HashSet<>();
+    private long numQueued = 0;
+    private long numDone = 0;
+
+    public StatementPipeline (String url, int numWriters, int queueDepth, int maxStatements, long maxBytes, RetryPolicy retry, BatchSizer sizer, boolean verbose, Logger cqlLogger) {
+        this.url = url;
+        this.numWriters = Math.max(1, numWriters);
+        this.maxStatements = maxStatements;
+        this.retry = retry;
+        this.sizer = sizer;
+        this.verbose = verbose;
+        this.cqlLogger = cqlLogger;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+
+        this.nodeStatements = new StatementBuffer(url, maxStatements, maxBytes, retry, sizer, verbose, cqlLogger) {
+            @Override
+            protected void send (List<JsonObject> statements, List<String> errorTitles) {
+                long sequence;
+                synchronized (lock) {
+                    sequence = ++numNodeBatches;
+                }
+                enqueue(new Batch(statements, errorTitles, sequence, false));
+            }
+        };
+
+        this.dependentStatements = new StatementBuffer(url, maxStatements, maxBytes, retry, sizer, verbose, cqlLogger) {
+            @Override
+            protected void send (List<JsonObject> statements, List<String> errorTitles) {
+                nodeStatements.flush();
+                long required;
+                synchronized (lock) {
+                    required = numNodeBatches;
+                }
+                enqueue(new Batch(statements, errorTitles, required, true));
+            }
+        };
+
+        this.writers = Executors.newFixedThreadPool(this.numWriters);
+        for (int i = 0; i < this.numWriters; i++) {
+            this.writers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds a statement. Blocks when the queue is full.
+     *
+     * @param dependent `true` if the statement relies on nodes merged by
+     *   earlier statements
+     */
+    public void add (String cql, JsonObject parameters, String errorTitle, boolean dependent) {
+        if (dependent) {
+            this.dependentStatements.add(cql, parameters, errorTitle);
+        } else {
+            this.nodeStatements.add(cql, parameters, errorTitle);
+        }
+    }
+
+    /**
+     * Queues all pending statements.
+     */
+    public void flush () {
+        this.nodeStatements.flush();
+        this.dependentStatements.flush();
+    }
+
+    /**
+     * Queues all pending statements and waits until every queued batch is
+     * committed.
+     */
+    public void await () throws InterruptedException {
+        this.flush();
+        synchronized (this.lock) {
+            while (this.numDone < this.numQueued) {
+                this.lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Waits for all batches and stops the writers.
+     */
+    public void close () throws InterruptedException {
+        this.await();
+        for (int i = 0; i < this.numWriters; i++) {
+            this.queue.put(END);
+        }
+        this.writers.shutdown();
+        this.writers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public long getNumRequests () {
+        return this.nodeStatements.getNumRequests() + this.dependentStatements.getNumRequests();
+    }
+
+    public long getNumStatements () {
+        return this.nodeStatements.getNumStatements() + this.dependentStatements.getNumStatements();
+    }
+
+    private void enqueue (Batch batch) {
+        synchronized (this.lock) {
+            this.numQueued++;
+        }
+        try {
+            this.queue.put(batch);
+        } catch (InterruptedException e) {
+            Owl2Neo4J.print_error(Owl2Neo4J.ANSI_RESET_DIM + "Interrupted while queueing statements");
+            System.exit(1);
+        }
+    }
+
+    private void write () {
+        try {
+            while (true) {
+                Batch batch = this.queue.take();
+                if (batch == END) {
+                    return;
+                }
+
+                if (batch.dependent) {
+                    // The queue is FIFO, so every node batch we wait for has
+                    // already been taken by another writer.
+                    synchronized (this.lock) {
+                        while (this.committedNodeBatches < batch.sequence) {
+                            this.lock.wait();
+                        }
+                    }
+                }
+
+                StatementBuffer.post(this.url, batch.statements, batch.errorTitles, this.maxStatements, this.retry, this.sizer, this.verbose, this.cqlLogger);
+
+                synchronized (this.lock) {
+                    if (!batch.dependent) {
+                        this.committedAhead.add(batch.sequence);
+                        while (this.committedAhead.remove(this.committedNodeBatches + 1)) {
+                            this.committedNodeBatches++;
+                        }
+                    }
+                    this.numDone++;
+                    this.lock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shutting down
+        }
+    }
+}
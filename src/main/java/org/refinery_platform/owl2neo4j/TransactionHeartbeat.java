@@ -0,0 +1,207 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the open transactions of all imports alive.
+ *
+ * Every response of Neo4J's transactional endpoint tells when the transaction
+ * expires. `Neo4jClient` passes the responses of all requests to an open
+ * transaction to `update()`, which schedules an empty request to the
+ * transaction shortly before it expires. Any other request to the
+ * transaction in the meantime pushes the refresh back, so a transaction that
+ * is written to regularly is never pinged. Transactions are forgotten once
+ * they are committed or Neo4J doesn't know them anymore.
+ *
+ * Requests to a transaction must not overlap, as Neo4J rejects concurrent
+ * requests to the same transaction. `getLock()` returns the lock that
+ * `Neo4jClient` holds while it talks to a transaction. Refreshes hold it as
+ * well.
+ *
+ * All transactions share one scheduler thread.
+ */
+class TransactionHeartbeat {
+
+    // Transaction ID and whether the request commits the transaction
+    private static final Pattern TRANSACTION_URL = Pattern.compile("/transaction/(\\d+)(/commit)?/?$");
+
+    // Refresh this long before the transaction expires. Transactions with
+    // less than twice as much time left are refreshed halfway instead.
+    private static final long MARGIN_MILLIS = 10000;
+    // Don't hammer Neo4J with refreshes of very short-lived transactions
+    private static final long MIN_DELAY_MILLIS = 500;
+
+    private static class Transaction {
+        final String url;
+        final Object lock = new Object();
+        ScheduledFuture<?> refresh;
+
+        Transaction (String url) {
+            this.url = url;
+        }
+    }
+
+    private final Neo4jClient client;
+    private final boolean verbose;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Transaction> transactions = new ConcurrentHashMap<>();
+
+    public TransactionHeartbeat (Neo4jClient client, boolean verbose) {
+        this.client = client;
+        this.verbose = verbose;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread (Runnable runnable) {
+                Thread thread = new Thread(runnable, "Transaction heartbeat");
+                // Must not keep the JVM alive
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return ID of the transaction the URL points to or `null` if it
+     *   doesn't point to an open transaction.
+     */
+    static String getTransactionId (String url) {
+        Matcher matcher = TRANSACTION_URL.matcher(url);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @return Lock to hold while sending a request to the transaction.
+     */
+    public Object getLock (String transactionId) {
+        Transaction transaction = this.transactions.get(transactionId);
+        return transaction == null ? new Object() : transaction.lock;
+    }
+
+    /**
+     * Tracks the transaction a request has been sent to. A new transaction is
+     * recognized by the `Location` of the response.
+     *
+     * @param url URL the request has been sent to
+     */
+    public synchronized void update (String url, Neo4jClient.Response response) {
+        String transactionUrl = url;
+        if (response.location != null) {
+            transactionUrl = response.location;
+        }
+        Matcher matcher = TRANSACTION_URL.matcher(transactionUrl);
+        if (!matcher.find()) {
+            return;
+        }
+        String id = matcher.group(1);
+
+        // Committed, rolled back or unknown to Neo4J
+        if (matcher.group(2) != null || response.expires == null || response.status == 404) {
+            this.forget(id);
+            return;
+        }
+
+        long delay = getRefreshDelay(response);
+        Transaction transaction = this.transactions.get(id);
+        if (transaction == null) {
+            transaction = new Transaction(transactionUrl);
+            this.transactions.put(id, transaction);
+        }
+        this.schedule(id, transaction, delay);
+    }
+
+    public void shutdown () {
+        this.scheduler.shutdownNow();
+        this.transactions.clear();
+    }
+
+    /**
+     * Time until the transaction should be refreshed. Computed relative to
+     * the server's `Date` header, so that the clocks of client and server
+     * don't have to agree.
+     */
+    private static long getRefreshDelay (Neo4jClient.Response response) {
+        long remaining;
+        try {
+            long expires = parseDate(response.expires);
+            long now = response.date != null ? parseDate(response.date) : System.currentTimeMillis();
+            remaining = Math.max(0, expires - now);
+        } catch (ParseException e) {
+            // Neo4J's default timeout
+            remaining = 60000;
+        }
+        long delay = remaining >= 2 * MARGIN_MILLIS ? remaining - MARGIN_MILLIS : remaining / 2;
+        return Math.max(MIN_DELAY_MILLIS, delay);
+    }
+
+    private static long parseDate (String date) throws ParseException {
+        // `SimpleDateFormat` isn't thread-safe
+        return new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.US).parse(date).getTime();
+    }
+
+    private void schedule (final String id, final Transaction transaction, long delay) {
+        if (transaction.refresh != null) {
+            transaction.refresh.cancel(false);
+        }
+        if (this.scheduler.isShutdown()) {
+            return;
+        }
+        transaction.refresh = this.scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh(id, transaction);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void forget (String id) {
+        Transaction transaction = this.transactions.remove(id);
+        if (transaction != null && transaction.refresh != null) {
+            transaction.refresh.cancel(false);
+        }
+    }
+
+    /**
+     * Sends an empty request to the transaction. Failures are only reported,
+     * as this runs in the background. The next request of the import to the
+     * transaction fails as well and ends the import.
+     */
+    private void refresh (String id, Transaction transaction) {
+        synchronized (transaction.lock) {
+            if (this.transactions.get(id) != transaction) {
+                // Committed in the meantime
+                return;
+            }
+            try {
+                Neo4jClient.Response response = this.client.send(transaction.url, "{\"statements\":[]}");
+                if (this.verbose) {
+                    System.out.println(
+                        "Pinging transaction " + id + ". [Neo4J status:" +
+                        Integer.toString(response.status) + "]"
+                    );
+                }
+                if (response.hasError()) {
+                    Owl2Neo4J.print_error(Owl2Neo4J.ANSI_RESET_DIM + "Error keeping transaction " + id + " alive");
+                    Owl2Neo4J.print_error(response.errorCode + ": \"" + response.errorMessage + "\"");
+                    this.forget(id);
+                    return;
+                }
+                this.update(transaction.url, response);
+            } catch (Exception e) {
+                Owl2Neo4J.print_error(Owl2Neo4J.ANSI_RESET_DIM + "Error keeping transaction " + id + " alive");
+                Owl2Neo4J.print_error(e.getMessage());
+                this.forget(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.refinery_platform.owl2neo4j;
+
+/** Neo4J Java driver */
+import org.neo4j.driver.v1.exceptions.Neo4jException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of what a sink has written to the open transaction since the
+ * last commit, so that a transaction that failed transiently can be replaced
+ * by a new one and everything sent to the failed one can be replayed. Shared
+ * by `HttpSink` and `BoltSink`, which only differ in how statements are sent
+ * and split.
+ *
+ * Statements are only kept with `commitEvery` > 0, which bounds their number.
+ * Without it a failed transaction can't be restored, so failures aren't
+ * retried.
+ *
+ * After Neo4J has been under pressure, `UNWIND` statements are replayed in
+ * chunks of the shrunk number of rows instead of the rows they were sent
+ * with. See `BatchSizer`.
+ */
+abstract class TransactionReplay<S> {
+
+    private final int commitEvery;
+    private final RetryPolicy retry;
+    private final BatchSizer sizer;
+    private final boolean verbose;
+
+    private final List<S> sent = new ArrayList<>();
+    private GraphSink.CommitListener commitListener;
+
+    // Number of nodes, relationships etc. written since the last commit
+    private long writesSinceCommit = 0;
+    private int numChunks = 0;
+    // Whether a transaction has been begun since the last commit
+    private boolean begun = false;
+    private long chunkStart;
+
+    public TransactionReplay (int commitEvery, RetryPolicy retry, BatchSizer sizer, boolean verbose) {
+        this.commitEvery = commitEvery;
+        this.retry = retry;
+        this.sizer = sizer;
+        this.verbose = verbose;
+    }
+
+    /**
+     * Sends replayed statements to the new transaction and waits until
+     * Neo4J has run them.
+     */
+    protected abstract void send (List<S> statements) throws Exception;
+
+    /**
+     * Splits the rows of an `UNWIND` statement into statements of at most
+     * `maxRows` rows each. Other statements are returned as they are.
+     */
+    protected abstract List<S> split (S statement, int maxRows);
+
+    public void setCommitListener (GraphSink.CommitListener commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    public void wrote () {
+        this.writesSinceCommit++;
+    }
+
+    /**
+     * Whether enough has been written to commit at the next checkpoint.
+     */
+    public boolean isCommitDue () {
+        return this.commitEvery > 0 && this.writesSinceCommit >= this.commitEvery;
+    }
+
+    public void begun () {
+        this.begun = true;
+        this.chunkStart = System.nanoTime();
+    }
+
+    public void sent (S statement) {
+        if (this.commitEvery > 0) {
+            this.sent.add(statement);
+        }
+    }
+
+    public void sent (List<S> statements) {
+        if (this.commitEvery > 0) {
+            this.sent.addAll(statements);
+        }
+    }
+
+    /**
+     * Decides whether a failure of the open transaction is retried and waits
+     * before the next attempt.
+     *
+     * @param attempt Number of attempts that have failed so far
+     * @param batchSize Size of the failed request, 0 if it isn't known
+     * @param maxBatchSize Configured limit of `batchSize`
+     */
+    public boolean retry (Exception e, int attempt, long batchSize, long maxBatchSize) {
+        RetryPolicy.Kind kind = RetryPolicy.classify(e);
+        if (!this.retry.shouldRetry(kind, attempt)) {
+            return false;
+        }
+        if (this.commitEvery <= 0) {
+            Owl2Neo4J.print_error(
+                Owl2Neo4J.ANSI_RESET_DIM + "The transaction can't be restored. " +
+                "Use `--commit-every` to retry failed transactions."
+            );
+            return false;
+        }
+        if (kind == RetryPolicy.Kind.PRESSURE) {
+            this.sizer.shrink(batchSize, maxBatchSize);
+        }
+        try {
+            this.retry.backoff(attempt, describe(e));
+        } catch (IOException interrupted) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends everything that has been sent since the last commit to a new
+     * transaction, `batchSize` statements at a time.
+     *
+     * @param maxRows Current number of rows per `UNWIND` statement
+     */
+    public void replay (int batchSize, int maxRows) throws Exception {
+        List<S> statements = new ArrayList<>(this.sent.size());
+        for (S statement: this.sent) {
+            statements.addAll(this.split(statement, Math.max(1, maxRows)));
+        }
+        // Later replays don't have to split them again
+        this.sent.clear();
+        this.sent.addAll(statements);
+
+        if (this.verbose) {
+            System.out.println("Replaying " + statements.size() + " statements");
+        }
+        batchSize = Math.max(1, batchSize);
+        for (int i = 0; i < statements.size(); i += batchSize) {
+            this.send(statements.subList(i, Math.min(i + batchSize, statements.size())));
+        }
+    }
+
+    /**
+     * Forgets everything written since the last commit and notifies the
+     * commit listener.
+     */
+    public void committed () throws IOException {
+        if (this.begun && this.commitEvery > 0 && this.verbose) {
+            this.numChunks++;
+            double chunkTime = (System.nanoTime() - this.chunkStart) / 1000000000.0;
+            System.out.println(
+                "Chunk #" + this.numChunks + ": " + this.writesSinceCommit + " writes committed in " +
+                String.format("%.2f", chunkTime) + " sec"
+            );
+        }
+
+        this.begun = false;
+        this.writesSinceCommit = 0;
+        this.sent.clear();
+
+        if (this.commitListener != null) {
+            this.commitListener.committed();
+        }
+    }
+
+    /**
+     * Error code and message of a failure reported via Bolt, the message of
+     * any other failure.
+     */
+    static String describe (Exception e) {
+        if (e instanceof Neo4jException) {
+            return ((Neo4jException) e).code() + ": " + e.getMessage();
+        }
+        return e.getMessage();
+    }
+}
@@ -0,0 +1,86 @@
+package org.refinery_platform.owl2neo4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes extracted classes in two passes: first every node, then every
+ * relationship.
+ *
+ * Class nodes are written right away. Nodes that are only referenced, e.g.
+ * superclasses from other ontologies, are written after all classes unless
+ * they turned out to be classes themselves. Relationships are held back until
+ * all nodes are written. This way every URI is written exactly once and
+ * relationships never have to wait for their nodes.
+ */
+class TwoPhaseWriter {
+
+    private final GraphSink sink;
+    private final String classLabel;
+    private final UriCache uriCache;
+
+    private int numNodes = 0;
+    // Referenced nodes as URI -> ontology ID
+    private final Map<String, String> referencedNodes = new LinkedHashMap<>();
+    private final List<ClassRecord.Edge> edges = new ArrayList<>();
+
+    /**
+     * @param uriCache Keeps track of written nodes. Nodes that have been
+     *   written before, e.g. the root class, are skipped.
+     */
+    public TwoPhaseWriter (GraphSink sink, String classLabel, UriCache uriCache) {
+        this.sink = sink;
+        this.classLabel = classLabel;
+        this.uriCache = uriCache;
+    }
+
+    /**
+     * Writes the class node of the record and keeps the rest for later.
+     */
+    public void add (ClassRecord record) throws IOException {
+        if (this.uriCache.markEmitted(record.uri)) {
+            this.sink.upsertNode(this.classLabel, record.uri, record.properties);
+            this.numNodes++;
+            this.referencedNodes.remove(record.uri);
+        }
+
+        for (Owl2Neo4J.Tuple<String, String> reference: record.references) {
+            if (!this.referencedNodes.containsKey(reference.x) && !this.uriCache.isEmitted(reference.x)) {
+                this.referencedNodes.put(reference.x, reference.y);
+            }
+        }
+
+        this.edges.addAll(record.edges);
+    }
+
+    /**
+     * Writes the remaining referenced nodes and then all relationships.
+     */
+    public void finish () throws IOException {
+        for (Map.Entry<String, String> reference: this.referencedNodes.entrySet()) {
+            if (this.uriCache.markEmitted(reference.getKey())) {
+                Map<String, String> properties = new LinkedHashMap<>();
+                properties.put("name", reference.getValue());
+                this.sink.referenceNode(this.classLabel, reference.getKey(), properties);
+            }
+        }
+        this.referencedNodes.clear();
+        this.sink.checkpoint();
+
+        for (ClassRecord.Edge edge: this.edges) {
+            this.sink.upsertEdge(this.classLabel, edge.src, this.classLabel, edge.dest, edge.type);
+            this.sink.checkpoint();
+        }
+        this.edges.clear();
+    }
+
+    /**
+     * @return Number of class nodes written so far.
+     */
+    public int getNumNodes () {
+        return this.numNodes;
+    }
+}
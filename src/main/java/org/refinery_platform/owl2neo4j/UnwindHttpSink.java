@@ -0,0 +1,137 @@
+package org.refinery_platform.owl2neo4j;
+
+/** JSON **/
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes class nodes and relationships in chunks of rows using one `UNWIND`
+ * statement per chunk instead of one statement per node or relationship.
+ *
+ * Node rows are always written before relationship rows, so that both ends of
+ * a relationship can be matched. Other nodes, labels and properties are
+ * written right away like `HttpSink` does.
+ */
+class UnwindHttpSink extends HttpSink {
+
+    private final String classLabel;
+    private final RowBuffer rows;
+
+    public UnwindHttpSink (String serverRootUrl, String acronym, String classLabel, int chunkSize, int flushSize, long flushBytes, int writers, int queueDepth, int commitEvery, int maxRetries, boolean verbose, Logger cqlLogger) {
+        super(serverRootUrl, acronym, flushSize, flushBytes, writers, queueDepth, commitEvery, maxRetries, verbose, cqlLogger);
+        this.classLabel = classLabel;
+        this.rows = new RowBuffer(chunkSize, this.sizer);
+    }
+
+    @Override
+    public void upsertNode (String label, String uri, Map<String, String> properties) throws IOException {
+        if (!label.equals(this.classLabel)) {
+            super.upsertNode(label, uri, properties);
+            return;
+        }
+        this.replay.wrote();
+        if (this.rows.addNode(uri, properties)) {
+            this.writeNodeRows();
+        }
+    }
+
+    @Override
+    public void referenceNode (String label, String uri, Map<String, String> properties) throws IOException {
+        this.upsertNode(label, uri, properties);
+    }
+
+    @Override
+    public void upsertEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        if (!srcLabel.equals(this.classLabel) || !destLabel.equals(this.classLabel)) {
+            this.writeNodeRows();
+            super.upsertEdge(srcLabel, srcUri, destLabel, destUri, type);
+            return;
+        }
+        this.replay.wrote();
+        if (this.rows.addEdge(type, srcUri, destUri)) {
+            this.writeNodeRows();
+            this.writeEdgeRows();
+        }
+    }
+
+    @Override
+    public void removeProperty (String label, String uri, String name) throws IOException {
+        // The node might still be pending
+        this.writeNodeRows();
+        super.removeProperty(label, uri, name);
+    }
+
+    @Override
+    public void deleteEdge (String srcLabel, String srcUri, String destLabel, String destUri, String type) throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        super.deleteEdge(srcLabel, srcUri, destLabel, destUri, type);
+    }
+
+    @Override
+    public void releaseNode (String label, String uri) throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        super.releaseNode(label, uri);
+    }
+
+    @Override
+    public void flush () throws IOException {
+        this.writeNodeRows();
+        this.writeEdgeRows();
+        super.flush();
+    }
+
+    @Override
+    protected int getMaxRows () {
+        return this.rows.getMaxRows();
+    }
+
+    private void writeNodeRows () {
+        if (this.rows.getNodes().isEmpty()) {
+            return;
+        }
+
+        // Labels can't be parameterized, hence the acronym is part of the query.
+        String cql = "UNWIND {rows} AS row " +
+            "MERGE (n:`" + this.classLabel + "` {uri:row.uri}) " +
+            "SET n += row.props, n:`" + this.acronym + "`;";
+
+        JsonArrayBuilder json = Json.createArrayBuilder();
+        for (Map.Entry<String, Map<String, String>> node: this.rows.getNodes().entrySet()) {
+            json.add(Json.createObjectBuilder()
+                .add("uri", node.getKey())
+                .add("props", toJson(node.getValue()))
+            );
+        }
+        this.rows.clearNodes();
+
+        this.query(cql, Json.createObjectBuilder().add("rows", json).build(), "Error creating nodes", false);
+    }
+
+    private void writeEdgeRows () {
+        // Relationship types can't be parameterized either, so there is one
+        // statement per type.
+        for (Map.Entry<String, List<Owl2Neo4J.Tuple<String, String>>> edges: this.rows.getEdges().entrySet()) {
+            String cql = "UNWIND {rows} AS row " +
+                "MATCH (src:`" + this.classLabel + "` {uri:row.src}), (dest:`" + this.classLabel + "` {uri:row.dest}) " +
+                "MERGE (src)-[:`" + edges.getKey() + "`]->(dest);";
+
+            JsonArrayBuilder json = Json.createArrayBuilder();
+            for (Owl2Neo4J.Tuple<String, String> edge: edges.getValue()) {
+                json.add(Json.createObjectBuilder()
+                    .add("src", edge.x)
+                    .add("dest", edge.y)
+                );
+            }
+
+            this.query(cql, Json.createObjectBuilder().add("rows", json).build(), "Error creating relationships", true);
+        }
+        this.rows.clearEdges();
+    }
+}
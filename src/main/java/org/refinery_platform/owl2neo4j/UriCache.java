@@ -0,0 +1,143 @@
+package org.refinery_platform.owl2neo4j;
+
+/** JSON **/
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-import cache of URIs.
+ *
+ * - Emitted URIs: URIs of nodes that have already been written. Only a 64 bit
+ *   hash of every URI is kept in an open addressing table, which needs 8 to 16
+ *   bytes per URI instead of a full string. Two URIs sharing a hash are
+ *   astronomically unlikely, but would cause the second node not to be
+ *   written as a referenced node.
+ * - Ontology IDs: Memoized results of `getOntID()`. This map is thread-safe
+ *   as IDs are looked up by the extraction threads.
+ *
+ * The emitted URIs are only accessed by the thread writing to the sink.
+ */
+class UriCache {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Hashes of emitted URIs. 0 marks an empty slot.
+    private long[] emitted = new long[INITIAL_CAPACITY];
+    private int numEmitted = 0;
+    private long emittedHits = 0;
+    private long emittedMisses = 0;
+
+    private final ConcurrentHashMap<String, String> ontIDs = new ConcurrentHashMap<>();
+    private final AtomicLong ontIDHits = new AtomicLong();
+    private final AtomicLong ontIDMisses = new AtomicLong();
+
+    /**
+     * Marks a URI as emitted.
+     *
+     * @return `true` if the URI hasn't been emitted before.
+     */
+    public boolean markEmitted (String uri) {
+        long hash = hash(uri);
+        int mask = this.emitted.length - 1;
+        int slot = (int) hash & mask;
+        while (this.emitted[slot] != 0) {
+            if (this.emitted[slot] == hash) {
+                this.emittedHits++;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.emitted[slot] = hash;
+        this.numEmitted++;
+        this.emittedMisses++;
+        // Keep the load factor below 0.5 so that probe sequences stay short.
+        if (this.numEmitted * 2 > this.emitted.length) {
+            this.grow();
+        }
+        return true;
+    }
+
+    public boolean isEmitted (String uri) {
+        long hash = hash(uri);
+        int mask = this.emitted.length - 1;
+        int slot = (int) hash & mask;
+        while (this.emitted[slot] != 0) {
+            if (this.emitted[slot] == hash) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return The cached ontology ID or `null` if the URI hasn't been seen yet.
+     */
+    public String getOntID (String uri) {
+        String ontID = this.ontIDs.get(uri);
+        if (ontID == null) {
+            this.ontIDMisses.incrementAndGet();
+        } else {
+            this.ontIDHits.incrementAndGet();
+        }
+        return ontID;
+    }
+
+    public void putOntID (String uri, String ontID) {
+        this.ontIDs.put(uri, ontID);
+    }
+
+    public String getStats () {
+        return "URI cache: " + this.numEmitted + " emitted nodes (" +
+            this.emittedHits + " hits, " + this.emittedMisses + " misses), " +
+            this.ontIDs.size() + " ontology IDs (" +
+            this.ontIDHits.get() + " hits, " + this.ontIDMisses.get() + " misses)";
+    }
+
+    public JsonObject toJson () {
+        return Json.createObjectBuilder()
+            .add("emittedNodes", this.numEmitted)
+            .add("emittedHits", this.emittedHits)
+            .add("emittedMisses", this.emittedMisses)
+            .add("ontologyIds", this.ontIDs.size())
+            .add("ontologyIdHits", this.ontIDHits.get())
+            .add("ontologyIdMisses", this.ontIDMisses.get())
+            .build();
+    }
+
+    private void grow () {
+        long[] old = this.emitted;
+        this.emitted = new long[old.length * 2];
+        int mask = this.emitted.length - 1;
+        for (long hash: old) {
+            if (hash != 0) {
+                int slot = (int) hash & mask;
+                while (this.emitted[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                this.emitted[slot] = hash;
+            }
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash followed by the finalizer of MurmurHash3 to spread
+     * the lower bits, which are used to pick the slot.
+     */
+    static long hash (String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}